@@ -0,0 +1,59 @@
+package com.fightzhong.cache;
+
+/**
+ * 缓存在某一时刻的统计数据, 创建之后不会再改变, 两次快照相减即可得到这段时间内的统计数据
+ */
+public final class CacheStats {
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long evictionWeight;
+
+	public CacheStats (long hitCount, long missCount, long evictionCount, long evictionWeight) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.evictionWeight = evictionWeight;
+	}
+
+	public long hitCount () {
+		return hitCount;
+	}
+
+	public long missCount () {
+		return missCount;
+	}
+
+	public long requestCount () {
+		return hitCount + missCount;
+	}
+
+	// 命中率, 没有任何请求时为1
+	public double hitRate () {
+		long requestCount = requestCount();
+		return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+	}
+
+	// 因为超出容量而被淘汰的元素个数, 不包括主动删除的元素
+	public long evictionCount () {
+		return evictionCount;
+	}
+
+	public long evictionWeight () {
+		return evictionWeight;
+	}
+
+	public CacheStats minus (CacheStats other) {
+		return new CacheStats(
+				Math.max( 0, hitCount - other.hitCount ),
+				Math.max( 0, missCount - other.missCount ),
+				Math.max( 0, evictionCount - other.evictionCount ),
+				Math.max( 0, evictionWeight - other.evictionWeight ) );
+	}
+
+	@Override
+	public String toString () {
+		return "CacheStats{hitCount=" + hitCount + ", missCount=" + missCount + ", hitRate=" + hitRate()
+				+ ", evictionCount=" + evictionCount + ", evictionWeight=" + evictionWeight + "}";
+	}
+}
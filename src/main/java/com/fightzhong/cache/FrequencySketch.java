@@ -0,0 +1,117 @@
+package com.fightzhong.cache;
+
+/**
+ * 用Count-Min Sketch近似统计每个key最近被访问的次数, 供TinyLfuCache在淘汰时判断新元素是否值得留下
+ *
+ * 与直接用一个HashMap记录每个key的次数相比:
+ *   <1> 只占用固定大小的long数组, 每个long中存放16个4位的计数器, 计数最大为15, 对于判断冷热已经足够
+ *   <2> 每个key对应4个计数器(分别用不同的种子计算位置), 查询时取4个计数器中的最小值, 只要其中有一个
+ *       没有与其他key冲突, 结果就是准确的
+ *   <3> 增加的次数达到sampleSize时, 所有计数器减半(老化), 使得过去很热但现在已经不再访问的key逐渐被遗忘
+ */
+public final class FrequencySketch<E> {
+	private static long[] SEED = { // 4个计数器各自使用的种子
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static long RESET_MASK = 0x7777777777777777L; // 计数器减半后每4位中的最高位必定为0
+	private static long ONE_MASK = 0x1111111111111111L; // 每4位中的最低位
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+
+	private long[] table;
+	private int tableMask;
+	private int sampleSize; // 增加次数达到该值时进行一次老化
+	private int size; // 上一次老化之后增加的次数
+
+	/*----------------------------------构造器--------------------------------------*/
+	public FrequencySketch (long maximumSize) {
+		ensureCapacity( maximumSize );
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	/**
+	 * 保证可以较为准确地统计maximumSize个key, 需要扩大时会丢弃之前的统计结果
+	 */
+	public void ensureCapacity (long maximumSize) {
+		int maximum = (int) Math.min( Math.max( maximumSize, 1 ), MAXIMUM_CAPACITY );
+		if ( table != null && table.length >= maximum )
+			return;
+
+		table = new long[tableSizeFor( maximum )];
+		tableMask = Math.max( 0, table.length - 1 );
+		sampleSize = maximum >= MAXIMUM_CAPACITY / 10 ? Integer.MAX_VALUE : 10 * maximum;
+		size = 0;
+	}
+
+	// 返回e最近被访问次数的估计值, 最大为15
+	public int frequency (E e) {
+		int hash = spread( e.hashCode() );
+		int start = ( hash & 3 ) << 2; // 在long中从第几个计数器开始, 4个计数器分别使用start, start + 1...
+
+		int frequency = Integer.MAX_VALUE;
+		for ( int i = 0; i < 4; i ++ ) {
+			int index = indexOf( hash, i );
+			int count = (int) ( ( table[index] >>> ( ( start + i ) << 2 ) ) & 0xfL );
+			frequency = Math.min( frequency, count );
+		}
+
+		return frequency;
+	}
+
+	// 记录e被访问了一次, 4个计数器中只要有一个增加了就算一次有效的增加
+	public void increment (E e) {
+		int hash = spread( e.hashCode() );
+		int start = ( hash & 3 ) << 2;
+
+		boolean added = false;
+		for ( int i = 0; i < 4; i ++ ) {
+			added |= incrementAt( indexOf( hash, i ), start + i );
+		}
+
+		if ( added && ++ size >= sampleSize )
+			reset();
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	// 将table[i]中第j个计数器加1, 已经达到15时不再增加
+	private boolean incrementAt (int i, int j) {
+		int offset = j << 2;
+		long mask = 0xfL << offset;
+		if ( ( table[i] & mask ) != mask ) {
+			table[i] += 1L << offset;
+			return true;
+		}
+
+		return false;
+	}
+
+	/*
+		所有计数器减半, 右移一位后每个计数器的最低位会移到相邻计数器的最高位上, 所以需要用RESET_MASK清掉,
+		减半时奇数计数器丢掉的0.5按照Caffeine的做法从size中扣除
+	 */
+	private void reset () {
+		int count = 0;
+		for ( int i = 0; i < table.length; i ++ ) {
+			count += Long.bitCount( table[i] & ONE_MASK );
+			table[i] = ( table[i] >>> 1 ) & RESET_MASK;
+		}
+
+		size = ( size - ( count >>> 2 ) ) >>> 1;
+	}
+
+	// 第i个计数器所在的long在table中的索引
+	private int indexOf (int hash, int i) {
+		long h = ( hash + SEED[i] ) * SEED[i];
+		h += h >>> 32;
+		return (int) h & tableMask;
+	}
+
+	// 对hashCode再进行一次混合, 使得相近的hashCode(例如连续的Integer)分散到不同的位置
+	private static int spread (int x) {
+		x = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+		x = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+		return ( x >>> 16 ) ^ x;
+	}
+
+	private static int tableSizeFor (int cap) {
+		return cap <= 1 ? 1 : Integer.highestOneBit( cap - 1 ) << 1;
+	}
+}
@@ -0,0 +1,14 @@
+package com.fightzhong.cache;
+
+/**
+ * 缓存用来判断元素是否过期的时钟, 单位是纳秒, 只用于计算时间差, 不需要对应真实的日期,
+ * 测试时可以传入一个手动拨动的时钟, 不需要真的等待时间流逝
+ */
+@FunctionalInterface
+public interface Ticker {
+	long read ();
+
+	static Ticker systemTicker () {
+		return System::nanoTime;
+	}
+}
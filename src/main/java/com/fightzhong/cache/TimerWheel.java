@@ -0,0 +1,159 @@
+package com.fightzhong.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮, 用于在均摊O(1)的时间内找出已经过期的元素, 不需要像扫描整个哈希表那样每次都花费O(n)的时间
+ *
+ *   <1> 时间轮由5层组成, 每一层都是一个环形数组, 每个槽位(bucket)是一个双向链表, 存放在该时间段内过期的元素,
+ *       各层槽位的跨度分别约为1.07秒、1.14分钟、1.22小时、1.63天、6.5天, 跨度都是2的幂, 计算槽位时只需要移位
+ *   <2> 元素根据距离过期的时间放到对应的层中: 离得越远放在越粗的层中, 放入及删除都是O(1)
+ *   <3> 时间前进时, 每一层只需要处理指针扫过的那些槽位, 槽位中真正过期的元素被淘汰, 还没有过期的
+ *       (粗粒度的层中的元素)则重新放入, 会落到更细的层中, 每个元素最多被重新放入层数那么多次
+ * 时间轮只保证元素在过期后一个槽位的跨度内被淘汰, 读取时仍然需要检查元素是否已经过期
+ */
+final class TimerWheel {
+	private static int[] BUCKETS = { 64, 64, 32, 4, 1 }; // 每一层的槽位个数
+	private static long[] SPANS = { // 每一层中一个槽位的跨度, 以及最后一层的总跨度
+			Long.highestOneBit( 1_000_000_000L ) << 1, // 1.07秒
+			Long.highestOneBit( 60_000_000_000L ) << 1, // 1.14分钟
+			Long.highestOneBit( 3_600_000_000_000L ) << 1, // 1.22小时
+			Long.highestOneBit( 86_400_000_000_000L ) << 1, // 1.63天
+			BUCKETS[3] * ( Long.highestOneBit( 86_400_000_000_000L ) << 1 ), // 6.5天
+			BUCKETS[3] * ( Long.highestOneBit( 86_400_000_000_000L ) << 1 ) };
+	private static long[] SHIFT = {
+			Long.numberOfTrailingZeros( SPANS[0] ), Long.numberOfTrailingZeros( SPANS[1] ),
+			Long.numberOfTrailingZeros( SPANS[2] ), Long.numberOfTrailingZeros( SPANS[3] ),
+			Long.numberOfTrailingZeros( SPANS[4] ) };
+
+	private final Timer[][] wheel;
+	private long nanos; // 时间轮当前的时间
+
+	/*----------------------------------Timer节点类--------------------------------------*/
+	// 需要放入时间轮的元素继承该类, 节点本身就是槽位链表中的节点, 放入及移动时不需要创建任何对象
+	static abstract class Timer {
+		long expirationTime; // 过期的时间点
+		Timer prevInTimer;
+		Timer nextInTimer; // 为null说明不在时间轮中
+	}
+
+	// 每个槽位中双向循环链表的哨兵节点
+	private static class Sentinel extends Timer {
+		Sentinel () {
+			prevInTimer = this;
+			nextInTimer = this;
+		}
+	}
+
+	/*----------------------------------构造器--------------------------------------*/
+	TimerWheel (long nanos) {
+		this.nanos = nanos;
+		this.wheel = new Timer[BUCKETS.length][];
+		for ( int i = 0; i < wheel.length; i ++ ) {
+			wheel[i] = new Timer[BUCKETS[i]];
+			for ( int j = 0; j < wheel[i].length; j ++ ) {
+				wheel[i][j] = new Sentinel();
+			}
+		}
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	// 按照timer.expirationTime放入对应的槽位
+	void schedule (Timer timer) {
+		Timer sentinel = findBucket( timer.expirationTime );
+		timer.prevInTimer = sentinel.prevInTimer;
+		timer.nextInTimer = sentinel;
+		sentinel.prevInTimer.nextInTimer = timer;
+		sentinel.prevInTimer = timer;
+	}
+
+	// 过期时间改变后重新放入
+	void reschedule (Timer timer) {
+		if ( timer.nextInTimer != null )
+			unlink( timer );
+
+		schedule( timer );
+	}
+
+	// 从时间轮中删除, 不在时间轮中时不做任何操作
+	void deschedule (Timer timer) {
+		if ( timer.nextInTimer != null ) {
+			unlink( timer );
+			timer.prevInTimer = null;
+			timer.nextInTimer = null;
+		}
+	}
+
+	/*
+		将时间推进到currentTime, 对已经过期的元素调用expired, 从细到粗依次处理每一层, 某一层的指针没有
+		前进说明更粗的层也不会前进, 直接结束
+	 */
+	void advance (long currentTime, Consumer<? super Timer> expired) {
+		long previousTime = nanos;
+		if ( currentTime - previousTime <= 0 )
+			return;
+		nanos = currentTime;
+
+		for ( int i = 0; i < SHIFT.length; i ++ ) {
+			long previousTicks = previousTime >>> SHIFT[i];
+			long currentTicks = currentTime >>> SHIFT[i];
+			if ( currentTicks - previousTicks <= 0 )
+				break;
+
+			expire( i, previousTicks, currentTicks, expired );
+		}
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	/*
+		处理第index层中指针从previousTicks走到currentTicks所扫过的槽位(最多一整圈), 槽位先整体取下来,
+		再逐个判断: 已经过期的交给expired, 还没有过期的重新放入, 此时距离过期的时间更短, 会落到更细的层中
+	 */
+	private void expire (int index, long previousTicks, long currentTicks, Consumer<? super Timer> expired) {
+		Timer[] timerWheel = wheel[index];
+		int mask = timerWheel.length - 1;
+		int steps = (int) Math.min( currentTicks - previousTicks + 1, timerWheel.length );
+		int start = (int) ( previousTicks & mask );
+
+		for ( int i = start; i < start + steps; i ++ ) {
+			Timer sentinel = timerWheel[i & mask];
+			Timer timer = sentinel.nextInTimer;
+			sentinel.prevInTimer = sentinel;
+			sentinel.nextInTimer = sentinel;
+
+			while ( timer != sentinel ) {
+				Timer next = timer.nextInTimer;
+				timer.prevInTimer = null;
+				timer.nextInTimer = null;
+
+				if ( timer.expirationTime - nanos > 0 ) {
+					schedule( timer );
+				} else {
+					expired.accept( timer );
+				}
+
+				timer = next;
+			}
+		}
+	}
+
+	// 根据距离过期的时间找到所在的层, 再根据过期的时间点找到该层中的槽位, 超出所有层的跨度时放到最后一层
+	private Timer findBucket (long time) {
+		long duration = time - nanos;
+		int length = wheel.length - 1;
+		for ( int i = 0; i < length; i ++ ) {
+			if ( duration < SPANS[i + 1] ) {
+				long ticks = time >>> SHIFT[i];
+				int index = (int) ( ticks & ( wheel[i].length - 1 ) );
+				return wheel[i][index];
+			}
+		}
+
+		return wheel[length][0];
+	}
+
+	private void unlink (Timer timer) {
+		timer.prevInTimer.nextInTimer = timer.nextInTimer;
+		timer.nextInTimer.prevInTimer = timer.prevInTimer;
+	}
+}
@@ -0,0 +1,545 @@
+package com.fightzhong.cache;
+
+import com.fightzhong.hashmap.HashMapV4;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 基于W-TinyLFU淘汰策略的有界缓存, 数据存放在HashMapV4中
+ *
+ * 纯LRU在遇到一次性的批量扫描时, 大量只会被访问一次的key会把真正的热点数据全部挤出去, W-TinyLFU的做法是:
+ *   <1> 新元素先进入一个很小的窗口LRU(window, 占总容量的1%), 用于接住短时间内集中的突发访问
+ *   <2> 从窗口中淘汰出来的元素成为候选者, 进入主缓存之前需要与主缓存中最该被淘汰的元素(victim)比较,
+ *       通过FrequencySketch估计两者最近的访问频率, 候选者更频繁才能留下, 否则直接被淘汰, 扫描的数据
+ *       只会被访问一次, 几乎不可能挤掉热点数据
+ *   <3> 主缓存是一个分段LRU(SLRU): 刚进入的元素放在probation段, 再次被访问时晋升到protected段(占主缓存的80%),
+ *       protected段满了则把最久没有被访问的元素降级回probation段, victim总是从probation段的头部选择
+ *
+ * 容量限制的是所有元素的权重之和, 没有指定Weigher时每个元素的权重都为1, 即限制的是元素个数
+ *
+ * 元素可以设置过期时间(写入后多久过期、最后一次访问后多久过期, 两者同时设置时先到者生效), 过期的元素
+ * 放在TimerWheel中, 每次操作时根据Ticker推进时间轮, 均摊O(1)地淘汰过期元素, 不需要扫描整个哈希表
+ *
+ * 与HashMapV4一样不是线程安全的, 并且get也会修改LRU的顺序, 多线程使用时需要在外部加锁
+ */
+@SuppressWarnings( "unchecked" )
+public class TinyLfuCache<K, V> {
+	private static int WINDOW = 0; // 元素所在的段
+	private static int PROBATION = 1;
+	private static int PROTECTED = 2;
+	private static double WINDOW_PERCENT = 0.01d; // 窗口占总容量的比例
+	private static double PROTECTED_PERCENT = 0.8d; // protected段占主缓存的比例
+	private static int ADMIT_HASHDOS_THRESHOLD = 6; // 候选者的频率不低于该值时, 即使不如victim也有小概率被放行
+	private static long NO_EXPIRY = -1; // 没有设置过期时间
+	private static long MAXIMUM_EXPIRY = Long.MAX_VALUE >> 1; // 约146年, 避免计算过期时间点时溢出
+
+	private final HashMapV4<K, Node<K, V>> data;
+	private final FrequencySketch<K> sketch;
+	private final Weigher<? super K, ? super V> weigher;
+
+	// 三个段各自的LRU链表, 头部是最久没有被访问的元素
+	private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+	private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+	private final AccessOrderDeque<K, V> protectedDeque = new AccessOrderDeque<>();
+
+	private final long maximumWeight;
+	private final long windowMaximum;
+	private final long protectedMaximum;
+	private long weightedSize;
+	private long windowWeightedSize;
+	private long protectedWeightedSize;
+
+	// 过期相关的属性, 所有的时间都是相对于startTime的纳秒数, 保证时间轮中的时间从0开始递增
+	private final Ticker ticker;
+	private final long startTime;
+	private TimerWheel timerWheel;
+	private long expireAfterWriteNanos = NO_EXPIRY;
+	private long expireAfterAccessNanos = NO_EXPIRY;
+	private boolean expiring; // 是否有元素可能过期, 没有时不需要读取时钟及推进时间轮
+	private final Consumer<TimerWheel.Timer> expiredAction = timer -> evict( (Node<K, V>) timer );
+
+	// 统计数据
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long evictionWeight;
+
+	/*----------------------------------Node节点类--------------------------------------*/
+	// HashMapV4中存放的value, 同时也是所在段的LRU链表中的节点以及时间轮中的节点
+	private static class Node<K, V> extends TimerWheel.Timer {
+		final K key;
+		V value;
+		int weight;
+		int queueType;
+		Node<K, V> prev;
+		Node<K, V> next;
+		long writeTime; // 最后一次写入的时间
+		long writeTtl = NO_EXPIRY; // 写入后多久过期
+
+		Node (K key, V value, int weight) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	// 双向链表实现的LRU队列, 节点本身就是链表节点, 移动时不需要创建任何对象
+	private static class AccessOrderDeque<K, V> {
+		Node<K, V> head;
+		Node<K, V> tail;
+
+		Node<K, V> peekFirst () {
+			return head;
+		}
+
+		void addLast (Node<K, V> node) {
+			node.prev = tail;
+			node.next = null;
+			if ( tail == null ) {
+				head = node;
+			} else {
+				tail.next = node;
+			}
+			tail = node;
+		}
+
+		void remove (Node<K, V> node) {
+			if ( node.prev == null ) {
+				head = node.next;
+			} else {
+				node.prev.next = node.next;
+			}
+
+			if ( node.next == null ) {
+				tail = node.prev;
+			} else {
+				node.next.prev = node.prev;
+			}
+
+			node.prev = null;
+			node.next = null;
+		}
+
+		void moveToBack (Node<K, V> node) {
+			if ( node != tail ) {
+				remove( node );
+				addLast( node );
+			}
+		}
+
+		void clear () {
+			head = null;
+			tail = null;
+		}
+	}
+
+	/*----------------------------------构造器--------------------------------------*/
+	/**
+	 * @param maximumSize 最多能存放的元素个数
+	 */
+	public TinyLfuCache (long maximumSize) {
+		this( maximumSize, null );
+	}
+
+	/**
+	 * @param maximumWeight 所有元素的权重之和的最大值
+	 * @param weigher 计算每个元素的权重, 为null时每个元素的权重都为1
+	 */
+	public TinyLfuCache (long maximumWeight, Weigher<? super K, ? super V> weigher) {
+		this( maximumWeight, weigher, Ticker.systemTicker() );
+	}
+
+	/**
+	 * @param ticker 判断元素是否过期时使用的时钟
+	 */
+	public TinyLfuCache (long maximumWeight, Weigher<? super K, ? super V> weigher, Ticker ticker) {
+		if ( maximumWeight < 0 )
+			throw new IllegalArgumentException( "非法的最大容量: " + maximumWeight );
+
+		this.maximumWeight = maximumWeight;
+		this.windowMaximum = maximumWeight - (long) ( maximumWeight * ( 1 - WINDOW_PERCENT ) );
+		this.protectedMaximum = (long) ( ( maximumWeight - windowMaximum ) * PROTECTED_PERCENT );
+		this.weigher = weigher;
+
+		this.data = new HashMapV4<>();
+		// sketch的大小随着元素个数增长, 不按照maximumWeight一次性分配, 避免容量设置得很大时浪费内存
+		this.sketch = new FrequencySketch<>( 16 );
+
+		this.ticker = Objects.requireNonNull( ticker );
+		this.startTime = ticker.read();
+		this.timerWheel = new TimerWheel( 0 );
+	}
+
+	/**
+	 * 元素写入(放入或者替换值)之后经过duration过期, 只对之后写入的元素生效
+	 */
+	public void setExpireAfterWrite (long duration, TimeUnit unit) {
+		expireAfterWriteNanos = toNanos( duration, unit );
+		expiring = true;
+	}
+
+	/**
+	 * 元素最后一次被访问(读取或者写入)之后经过duration过期, 只对之后访问的元素生效
+	 */
+	public void setExpireAfterAccess (long duration, TimeUnit unit) {
+		expireAfterAccessNanos = toNanos( duration, unit );
+		expiring = true;
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	// 获取key对应的值, 不存在时返回null, 命中与否都会记录该key的一次访问
+	public V get (K key) {
+		Objects.requireNonNull( key );
+		long now = expireEntries();
+
+		Node<K, V> node = data.get( key );
+		sketch.increment( key );
+		if ( node != null && hasExpired( node, now ) ) { // 时间轮还没有来得及淘汰的过期元素
+			evict( node );
+			node = null;
+		}
+		if ( node == null ) {
+			missCount ++;
+			return null;
+		}
+
+		hitCount ++;
+		onAccess( node );
+		if ( expireAfterAccessNanos != NO_EXPIRY )
+			scheduleExpiration( node, now );
+
+		return node.value;
+	}
+
+	/**
+	 * 获取key对应的值, 不存在时通过mappingFunction加载并放入缓存, mappingFunction返回null时不放入
+	 */
+	public V get (K key, Function<? super K, ? extends V> mappingFunction) {
+		Objects.requireNonNull( mappingFunction );
+
+		V value = get( key );
+		if ( value != null )
+			return value;
+
+		value = mappingFunction.apply( key );
+		if ( value != null )
+			put( key, value );
+
+		return value;
+	}
+
+	// 放入一个元素, 返回原来的值, 放入后超出容量时会淘汰其他元素(也可能是刚放入的元素本身)
+	public V put (K key, V value) {
+		return put( key, value, expireAfterWriteNanos );
+	}
+
+	/**
+	 * 放入一个元素, 并单独指定该元素写入后多久过期, 不受setExpireAfterWrite的影响
+	 */
+	public V put (K key, V value, long duration, TimeUnit unit) {
+		long writeTtl = toNanos( duration, unit );
+		expiring = true;
+		return put( key, value, writeTtl );
+	}
+
+	private V put (K key, V value, long writeTtl) {
+		Objects.requireNonNull( key );
+		Objects.requireNonNull( value );
+		long now = expireEntries();
+
+		int weight = weigh( key, value );
+		Node<K, V> node = data.get( key );
+		sketch.increment( key );
+		if ( node != null && hasExpired( node, now ) ) {
+			evict( node );
+			node = null;
+		}
+
+		if ( node != null ) { // key已经存在, 替换值并调整权重
+			V oldValue = node.value;
+			int delta = weight - node.weight;
+			node.value = value;
+			node.weight = weight;
+
+			weightedSize += delta;
+			if ( node.queueType == WINDOW ) {
+				windowWeightedSize += delta;
+			} else if ( node.queueType == PROTECTED ) {
+				protectedWeightedSize += delta;
+			}
+
+			onAccess( node );
+			setWriteTime( node, writeTtl, now );
+			evictEntries();
+			return oldValue;
+		}
+
+		node = new Node<>( key, value, weight );
+		node.queueType = WINDOW;
+		data.put( key, node );
+		window.addLast( node );
+		weightedSize += weight;
+		windowWeightedSize += weight;
+		setWriteTime( node, writeTtl, now );
+
+		sketch.ensureCapacity( data.size() );
+		evictEntries();
+		return null;
+	}
+
+	public V remove (K key) {
+		Node<K, V> node = data.remove( key );
+		if ( node == null )
+			return null;
+
+		unlink( node );
+		return node.value;
+	}
+
+	// 是否存在该key, 不算作一次访问, 不影响统计数据及淘汰顺序
+	public boolean containsKey (K key) {
+		Node<K, V> node = data.get( key );
+		return node != null && !( expiring && hasExpired( node, now() ) );
+	}
+
+	/**
+	 * 将时间轮推进到当前时间, 淘汰所有已经过期的元素, 平时每次get/put都会顺便推进,
+	 * 长时间没有任何操作时可以定期调用该方法释放过期元素占用的内存
+	 */
+	public void cleanUp () {
+		expireEntries();
+	}
+
+	public void clear () {
+		data.clear();
+		timerWheel = new TimerWheel( now() );
+		window.clear();
+		probation.clear();
+		protectedDeque.clear();
+		weightedSize = 0;
+		windowWeightedSize = 0;
+		protectedWeightedSize = 0;
+	}
+
+	public int size () {
+		return data.size();
+	}
+
+	public long weightedSize () {
+		return weightedSize;
+	}
+
+	public long maximumWeight () {
+		return maximumWeight;
+	}
+
+	public CacheStats stats () {
+		return new CacheStats( hitCount, missCount, evictionCount, evictionWeight );
+	}
+
+	/*----------------------------------过期--------------------------------------*/
+	// 推进时间轮并返回当前时间, 没有元素可能过期时不读取时钟
+	private long expireEntries () {
+		if ( !expiring )
+			return 0;
+
+		long now = now();
+		timerWheel.advance( now, expiredAction );
+		return now;
+	}
+
+	private boolean hasExpired (Node<K, V> node, long now) {
+		return node.nextInTimer != null && node.expirationTime - now <= 0;
+	}
+
+	private void setWriteTime (Node<K, V> node, long writeTtl, long now) {
+		node.writeTime = now;
+		node.writeTtl = writeTtl;
+		scheduleExpiration( node, now );
+	}
+
+	/*
+		过期时间点取写入过期及访问过期中较早的一个, 两者都没有设置时不放入时间轮
+		时间点之间用减法比较大小, 与System.nanoTime一样, 即使溢出也能得到正确的先后关系
+	 */
+	private void scheduleExpiration (Node<K, V> node, long now) {
+		boolean timed = false;
+		long expirationTime = 0;
+		if ( node.writeTtl != NO_EXPIRY ) {
+			expirationTime = node.writeTime + node.writeTtl;
+			timed = true;
+		}
+		if ( expireAfterAccessNanos != NO_EXPIRY ) {
+			long accessExpirationTime = now + expireAfterAccessNanos;
+			if ( !timed || accessExpirationTime - expirationTime < 0 )
+				expirationTime = accessExpirationTime;
+			timed = true;
+		}
+
+		if ( timed ) {
+			node.expirationTime = expirationTime;
+			timerWheel.reschedule( node );
+		} else {
+			timerWheel.deschedule( node );
+		}
+	}
+
+	private long now () {
+		return ticker.read() - startTime;
+	}
+
+	private static long toNanos (long duration, TimeUnit unit) {
+		if ( duration < 0 )
+			throw new IllegalArgumentException( "非法的过期时间: " + duration );
+
+		return Math.min( unit.toNanos( duration ), MAXIMUM_EXPIRY );
+	}
+
+	/*----------------------------------段之间的移动--------------------------------------*/
+	/*
+		元素被访问时:
+		  <1> 在窗口中则移动到窗口的尾部
+		  <2> 在probation段中说明在主缓存中被再次访问, 晋升到protected段, protected段超出容量时将其中最久
+		      没有被访问的元素降级到probation段的尾部, 它们还有机会再次晋升
+		  <3> 在protected段中则移动到protected段的尾部
+	 */
+	private void onAccess (Node<K, V> node) {
+		if ( node.queueType == WINDOW ) {
+			window.moveToBack( node );
+		} else if ( node.queueType == PROBATION ) {
+			probation.remove( node );
+			node.queueType = PROTECTED;
+			protectedDeque.addLast( node );
+			protectedWeightedSize += node.weight;
+
+			while ( protectedWeightedSize > protectedMaximum ) {
+				Node<K, V> demoted = protectedDeque.peekFirst();
+				protectedDeque.remove( demoted );
+				protectedWeightedSize -= demoted.weight;
+				demoted.queueType = PROBATION;
+				probation.addLast( demoted );
+			}
+		} else {
+			protectedDeque.moveToBack( node );
+		}
+	}
+
+	private void evictEntries () {
+		Node<K, V> candidate = evictFromWindow();
+		evictFromMain( candidate );
+	}
+
+	// 将窗口中超出容量的元素按顺序移动到probation段的尾部, 返回第一个被移动的元素, 即本轮第一个候选者
+	private Node<K, V> evictFromWindow () {
+		Node<K, V> first = null;
+		while ( windowWeightedSize > windowMaximum ) {
+			Node<K, V> node = window.peekFirst();
+			window.remove( node );
+			windowWeightedSize -= node.weight;
+			node.queueType = PROBATION;
+			probation.addLast( node );
+
+			if ( first == null )
+				first = node;
+		}
+
+		return first;
+	}
+
+	/*
+		总权重超出容量时, 让候选者(从candidate开始, 位于probation段的尾部)与victim(从probation段的头部开始)
+		逐个比较, 频率低的一方被淘汰:
+		  <1> 没有候选者, 或者victim已经走到了候选者的位置, 说明probation段中只剩下候选者, 直接按顺序淘汰
+		  <2> 单个元素的权重就超出了总容量, 不管频率如何都无法留下, 直接淘汰
+		  <3> probation段为空时, 依次从protected段及窗口的头部淘汰
+	 */
+	private void evictFromMain (Node<K, V> candidate) {
+		Node<K, V> victim = probation.peekFirst();
+		while ( weightedSize > maximumWeight ) {
+			if ( victim == null ) {
+				Node<K, V> node = protectedDeque.peekFirst();
+				if ( node == null )
+					node = window.peekFirst();
+				if ( node == null )
+					return;
+
+				evict( node );
+				continue;
+			}
+
+			if ( candidate == null || candidate == victim ) {
+				Node<K, V> next = victim.next;
+				if ( candidate == victim )
+					candidate = next;
+
+				evict( victim );
+				victim = next;
+				continue;
+			}
+
+			if ( candidate.weight > maximumWeight || !admit( candidate.key, victim.key ) ) {
+				Node<K, V> next = candidate.next;
+				evict( candidate );
+				candidate = next;
+			} else {
+				Node<K, V> next = victim.next;
+				evict( victim );
+				victim = next;
+			}
+		}
+	}
+
+	/*
+		候选者的频率比victim高才能留下, 但是攻击者可以利用哈希碰撞抬高victim在sketch中的频率, 使得所有的
+		新元素都无法进入缓存, 所以频率不算低的候选者还有1/128的概率被直接放行
+	 */
+	private boolean admit (K candidateKey, K victimKey) {
+		int victimFreq = sketch.frequency( victimKey );
+		int candidateFreq = sketch.frequency( candidateKey );
+		if ( candidateFreq > victimFreq )
+			return true;
+		if ( candidateFreq < ADMIT_HASHDOS_THRESHOLD )
+			return false;
+
+		return ( ThreadLocalRandom.current().nextInt() & 127 ) == 0;
+	}
+
+	private void evict (Node<K, V> node) {
+		data.remove( node.key );
+		unlink( node );
+		evictionCount ++;
+		evictionWeight += node.weight;
+	}
+
+	// 将节点从所在段的LRU链表以及时间轮中删除, 并扣除对应的权重
+	private void unlink (Node<K, V> node) {
+		timerWheel.deschedule( node );
+
+		if ( node.queueType == WINDOW ) {
+			window.remove( node );
+			windowWeightedSize -= node.weight;
+		} else if ( node.queueType == PROBATION ) {
+			probation.remove( node );
+		} else {
+			protectedDeque.remove( node );
+			protectedWeightedSize -= node.weight;
+		}
+
+		weightedSize -= node.weight;
+	}
+
+	private int weigh (K key, V value) {
+		if ( weigher == null )
+			return 1;
+
+		int weight = weigher.weigh( key, value );
+		if ( weight < 0 )
+			throw new IllegalArgumentException( "权重不能为负数: " + weight );
+
+		return weight;
+	}
+}
@@ -0,0 +1,13 @@
+package com.fightzhong.cache;
+
+/**
+ * 计算缓存中每个元素的权重, 缓存的容量限制的是所有元素的权重之和, 例如用value占用的字节数作为权重,
+ * 就可以按照内存大小而不是元素个数来限制缓存
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+	/**
+	 * @return 元素的权重, 不能为负数, 元素放入缓存之后权重不会再重新计算
+	 */
+	int weigh (K key, V value);
+}
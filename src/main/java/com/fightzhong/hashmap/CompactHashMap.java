@@ -0,0 +1,412 @@
+package com.fightzhong.hashmap;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * 结构数组(struct of arrays)布局的哈希表, 与HashMapV4中每个元素对应一个Node对象不同, 所有元素都存放在两个数组中:
+ *   <1> 下标为i的元素占用meta[2i]、meta[2i + 1](哈希值、同一个桶中下一个元素的下标)以及kv[2i]、kv[2i + 1](key、value),
+ *       元素紧密地排列在[0, size)中, 用int下标代替对象引用把链表串起来
+ *   <2> table中存放每个桶中第一个元素的下标
+ *   <3> 查找时先比较meta中的哈希值, 相等时才去访问key对象调用equals
+ * Node对象分散在堆中, 沿着next引用查找时几乎每一步都是一次缓存未命中, 而这里沿着链表查找只访问int数组,
+ * 哈希值与next相邻、key与value相邻, 一次命中最多访问table、meta、kv以及key对象; 每个元素只占用4个数组槽位,
+ * 没有Node的对象头开销
+ *
+ * 删除元素时将最后一个元素移动到被删除的位置, 保持元素紧密排列, 遍历只需要顺序扫描数组, 代价是遍历的顺序
+ * 会随着删除而改变; 桶中只使用链表, 没有像HashMapV4那样转换为红黑树
+ */
+@SuppressWarnings( "unchecked" )
+public class CompactHashMap<K, V> implements HashMapEngine<K, V> {
+	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的数组长度
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+	private static float DEFAULT_LOAD_FACTOR = 0.75f; // 负载因子
+	private static int EMPTY = -1; // 空桶以及链表的结尾
+
+	private int[] table; // 每个桶中第一个元素的下标
+
+	// 元素数组, 下标为i的元素: 哈希值(经过spread)及同一个桶中下一个元素的下标存放在meta[2i]、meta[2i + 1]中,
+	// key及value存放在kv[2i]、kv[2i + 1]中
+	private int[] meta;
+	private Object[] kv;
+
+	private int size;
+	private int threshold; // 元素个数达到该值时对table进行扩容
+	private final float loadFactor;
+	private int modCount;
+
+	/*----------------------------------构造器--------------------------------------*/
+	public CompactHashMap () {
+		this( DEFAULT_INITIAL_CAPACITY );
+	}
+
+	public CompactHashMap (int initialCapacity) {
+		this( initialCapacity, DEFAULT_LOAD_FACTOR );
+	}
+
+	public CompactHashMap (int initialCapacity, float loadFactor) {
+		if ( initialCapacity < 0 )
+			throw new IllegalArgumentException( "非法的初始容量: " + initialCapacity );
+		if ( !( loadFactor > 0 ) || Float.isInfinite( loadFactor ) )
+			throw new IllegalArgumentException( "非法的负载因子: " + loadFactor );
+
+		this.loadFactor = loadFactor;
+		int capacity = tableSizeFor( initialCapacity );
+		this.table = newTable( capacity );
+		this.threshold = thresholdFor( capacity );
+
+		int entryCapacity = Math.max( 1, Math.min( threshold, capacity ) );
+		this.meta = new int[entryCapacity << 1];
+		this.kv = new Object[entryCapacity << 1];
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	@Override
+	public V put (K key, V val) {
+		int hash = hash( key );
+		int index = indexOf( key, hash );
+		if ( index != EMPTY ) { // 已经存在该key, 用新值替换旧值
+			V oldVal = (V) kv[( index << 1 ) + 1];
+			kv[( index << 1 ) + 1] = val;
+			return oldVal;
+		}
+
+		addEntry( hash, key, val );
+		return null;
+	}
+
+	@Override
+	public V get (K key) {
+		int index = indexOf( key, hash( key ) );
+		return index == EMPTY ? null : (V) kv[( index << 1 ) + 1];
+	}
+
+	@Override
+	public boolean containsKey (K key) {
+		return indexOf( key, hash( key ) ) != EMPTY;
+	}
+
+	@Override
+	public V remove (K key) {
+		int hash = hash( key );
+		int bucket = hash & ( table.length - 1 );
+
+		int prev = EMPTY;
+		for ( int i = table[bucket]; i != EMPTY; i = meta[( i << 1 ) + 1] ) {
+			if ( meta[i << 1] == hash && Objects.equals( kv[i << 1], key ) ) {
+				V oldVal = (V) kv[( i << 1 ) + 1];
+				unlink( bucket, i, prev );
+				removeAt( i );
+				return oldVal;
+			}
+
+			prev = i;
+		}
+
+		return null;
+	}
+
+	/*
+		与HashMapV4一样只计算一次哈希值、只遍历一次链表, 找到后直接修改或者删除, 找不到则追加新的元素
+		remapping中如果修改了哈希表, 之前找到的下标会失效, 所以此时抛出ConcurrentModificationException
+	 */
+	@Override
+	public V compute (K key, Remapping<K, V> remapping) {
+		int hash = hash( key );
+		int bucket = hash & ( table.length - 1 );
+		int expectedModCount = modCount;
+
+		int prev = EMPTY;
+		for ( int i = table[bucket]; i != EMPTY; i = meta[( i << 1 ) + 1] ) {
+			if ( meta[i << 1] == hash && Objects.equals( kv[i << 1], key ) ) {
+				Object newVal = remapping.apply( key, (V) kv[( i << 1 ) + 1], true );
+				if ( modCount != expectedModCount )
+					throw new ConcurrentModificationException();
+
+				if ( newVal == KEEP_MAPPING )
+					return (V) kv[( i << 1 ) + 1];
+				if ( newVal != NO_MAPPING ) {
+					kv[( i << 1 ) + 1] = newVal;
+					return (V) newVal;
+				}
+
+				unlink( bucket, i, prev );
+				removeAt( i );
+				return null;
+			}
+
+			prev = i;
+		}
+
+		Object newVal = remapping.apply( key, null, false );
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+		if ( newVal == NO_MAPPING || newVal == KEEP_MAPPING )
+			return null;
+
+		addEntry( hash, key, (V) newVal );
+		return (V) newVal;
+	}
+
+	@Override
+	public void clear () {
+		Arrays.fill( table, EMPTY );
+		Arrays.fill( kv, 0, size << 1, null );
+		size = 0;
+		modCount ++;
+	}
+
+	@Override
+	public int size () {
+		return size;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/*----------------------------------元素数组相关操作--------------------------------------*/
+	// 查找key对应元素的下标, 不存在时返回EMPTY, 哈希值不相等时不会访问key对象
+	private int indexOf (Object key, int hash) {
+		for ( int i = table[hash & ( table.length - 1 )]; i != EMPTY; i = meta[( i << 1 ) + 1] ) {
+			if ( meta[i << 1] == hash && Objects.equals( kv[i << 1], key ) )
+				return i;
+		}
+
+		return EMPTY;
+	}
+
+	// 在元素数组的末尾追加一个元素, 并插入到对应桶中链表的头部
+	private void addEntry (int hash, K key, V val) {
+		if ( size >= threshold )
+			resize();
+		if ( size << 1 == meta.length )
+			growEntries();
+
+		int index = size ++;
+		int bucket = hash & ( table.length - 1 );
+		meta[index << 1] = hash;
+		meta[( index << 1 ) + 1] = table[bucket];
+		kv[index << 1] = key;
+		kv[( index << 1 ) + 1] = val;
+		table[bucket] = index;
+		modCount ++;
+	}
+
+	// 将下标为index的元素从所在桶的链表中摘下来, prev为链表中的前一个元素, index是第一个元素时为EMPTY
+	private void unlink (int bucket, int index, int prev) {
+		if ( prev == EMPTY ) {
+			table[bucket] = meta[( index << 1 ) + 1];
+		} else {
+			meta[( prev << 1 ) + 1] = meta[( index << 1 ) + 1];
+		}
+	}
+
+	/*
+		删除下标为index的元素(已经从链表中摘下), 将最后一个元素移动到index的位置, 保持元素紧密排列,
+		移动之前需要把链表中指向最后一个元素的下标改成index
+	 */
+	private void removeAt (int index) {
+		int last = -- size;
+		if ( index != last ) {
+			int bucket = meta[last << 1] & ( table.length - 1 );
+			if ( table[bucket] == last ) {
+				table[bucket] = index;
+			} else {
+				int p = table[bucket];
+				while ( meta[( p << 1 ) + 1] != last ) {
+					p = meta[( p << 1 ) + 1];
+				}
+				meta[( p << 1 ) + 1] = index;
+			}
+
+			meta[index << 1] = meta[last << 1];
+			meta[( index << 1 ) + 1] = meta[( last << 1 ) + 1];
+			kv[index << 1] = kv[last << 1];
+			kv[( index << 1 ) + 1] = kv[( last << 1 ) + 1];
+		}
+
+		kv[last << 1] = null;
+		kv[( last << 1 ) + 1] = null;
+		modCount ++;
+	}
+
+	/*
+		table扩容为原来的两倍, 元素数组中的数据不需要移动, 只需要按顺序重新串一遍链表,
+		整个过程都是对数组的顺序访问, 不会访问任何key对象
+	 */
+	private void resize () {
+		if ( table.length >= MAXIMUM_CAPACITY )
+			return;
+
+		int capacity = table.length << 1;
+		int mask = capacity - 1;
+		table = newTable( capacity );
+		threshold = thresholdFor( capacity );
+
+		for ( int i = 0; i < size; i ++ ) {
+			int bucket = meta[i << 1] & mask;
+			meta[( i << 1 ) + 1] = table[bucket];
+			table[bucket] = i;
+		}
+	}
+
+	// 元素数组扩容为原来的两倍
+	private void growEntries () {
+		int capacity = meta.length >= MAXIMUM_CAPACITY ? ( Integer.MAX_VALUE - 8 ) >> 1 : meta.length;
+		if ( capacity <= size )
+			throw new OutOfMemoryError( "元素个数超出上限" );
+
+		meta = Arrays.copyOf( meta, capacity << 1 );
+		kv = Arrays.copyOf( kv, capacity << 1 );
+	}
+
+	/*----------------------------------遍历--------------------------------------*/
+	// 顺序扫描元素数组, 不需要跳过空桶, 也不会创建任何对象
+	public void forEach (BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull( action );
+
+		int expectedModCount = modCount;
+		for ( int i = 0; i < size && modCount == expectedModCount; i ++ ) {
+			action.accept( (K) kv[i << 1], (V) kv[( i << 1 ) + 1] );
+		}
+
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator () {
+		return new EntryIterator();
+	}
+
+	/*
+		按照下标顺序遍历, 通过迭代器删除元素时, 最后一个元素会被移动到当前的位置, 所以下一次需要重新访问当前的下标
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		int cursor; // 下一个要访问的下标
+		int lastReturned = EMPTY;
+		int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext () {
+			return cursor < size;
+		}
+
+		@Override
+		public Map.Entry<K, V> next () {
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+			if ( cursor >= size )
+				throw new NoSuchElementException();
+
+			lastReturned = cursor ++;
+			return new Entry( lastReturned );
+		}
+
+		@Override
+		public void remove () {
+			int index = lastReturned;
+			if ( index == EMPTY )
+				throw new IllegalStateException();
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			int bucket = meta[index << 1] & ( table.length - 1 );
+			int prev = EMPTY;
+			for ( int i = table[bucket]; i != index; i = meta[( i << 1 ) + 1] ) {
+				prev = i;
+			}
+
+			unlink( bucket, index, prev );
+			removeAt( index );
+
+			cursor = index;
+			lastReturned = EMPTY;
+			expectedModCount = modCount;
+		}
+	}
+
+	/*
+		元素没有对应的对象, 遍历时为每个元素创建一个Entry, 记录下标及key, setValue直接修改kv数组,
+		删除其他元素可能会移动该元素的位置, 所以Entry只在下一次结构性修改之前有效
+	 */
+	private class Entry implements Map.Entry<K, V> {
+		final int index;
+		final K key;
+
+		Entry (int index) {
+			this.index = index;
+			this.key = (K) kv[index << 1];
+		}
+
+		@Override
+		public K getKey () {
+			return key;
+		}
+
+		@Override
+		public V getValue () {
+			return (V) kv[( index << 1 ) + 1];
+		}
+
+		@Override
+		public V setValue (V value) {
+			V oldVal = (V) kv[( index << 1 ) + 1];
+			kv[( index << 1 ) + 1] = value;
+			return oldVal;
+		}
+
+		@Override
+		public boolean equals (Object o) {
+			if ( !( o instanceof Map.Entry ) )
+				return false;
+
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return Objects.equals( key, e.getKey() ) && Objects.equals( getValue(), e.getValue() );
+		}
+
+		@Override
+		public int hashCode () {
+			return Objects.hashCode( key ) ^ Objects.hashCode( getValue() );
+		}
+
+		@Override
+		public String toString () {
+			return key + "=" + getValue();
+		}
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	// 与HashMapV4一样将高16位异或到低16位上, 存放在meta中的就是该值, 计算桶的下标时直接与运算即可
+	private static int hash (Object key) {
+		if ( key == null )
+			return 0;
+
+		int h = key.hashCode();
+		return h ^ ( h >>> 16 );
+	}
+
+	private static int[] newTable (int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill( table, EMPTY );
+		return table;
+	}
+
+	private static int tableSizeFor (int cap) {
+		if ( cap <= 1 )
+			return 1;
+
+		return cap >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : Integer.highestOneBit( cap - 1 ) << 1;
+	}
+
+	private int thresholdFor (int capacity) {
+		double threshold = (double) capacity * loadFactor;
+		return capacity >= MAXIMUM_CAPACITY || threshold >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) threshold;
+	}
+}
@@ -0,0 +1,333 @@
+package com.fightzhong.hashmap;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 仿照JDK7中ConcurrentHashMap实现的分段锁版本的HashMap(对应笔记13_JDK7中ConcurrentHashMap源码分析)
+ *
+ * HashMapV4是线程不安全的, 如果用一把全局锁包起来, 那么所有的线程都会竞争这一把锁, 分段锁的思路是:
+ *   <1> 将整个哈希表拆分成若干个Segment, 每个Segment就是一个小型的HashMap, 拥有自己的table、size以及
+ *       扩容阈值, 并且继承ReentrantLock, 拥有一把独立的锁
+ *   <2> put/remove的时候只锁住key所在的那个Segment, 不同Segment上的写操作可以并行执行, 扩容也是在
+ *       Segment内部独立进行的
+ *   <3> get操作不加锁, 依靠volatile读保证能够看到其他线程写入的最新数据
+ *
+ * 为了让get不加锁也能安全的读, 桶中采用的是链表而不是红黑树(红黑树的旋转会让正在读的线程看到不完整的
+ * 结构), 并且链表节点的hash和key是final的, 写操作只会在链表头部插入节点或者修改next/value这两个volatile
+ * 属性, 扩容的时候也不会修改旧链表中的节点, 而是复制出新的节点
+ *
+ * 与JDK中的ConcurrentHashMap一样, key和value都不能为null, 否则get返回null时无法区分是不存在还是值为null
+ */
+@SuppressWarnings( "unchecked" )
+public class ConcurrentHashMapV1<K, V> {
+	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 所有Segment中table长度的总和
+	private static float DEFAULT_LOAD_FACTOR = 0.75f; // 负载因子
+	private static int DEFAULT_CONCURRENCY_LEVEL = 16; // 并发级别, 即Segment的个数
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+	private static int MAX_SEGMENTS = 1 << 16;
+	private static int MIN_SEGMENT_TABLE_CAPACITY = 2; // 每个Segment中table的最小长度
+	private static int RETRIES_BEFORE_LOCK = 2; // 统计size时不加锁重试的次数
+
+	// 利用hash的高位计算Segment的索引, 低位计算Segment中table的索引, 使两者尽量不相关
+	private final int segmentShift;
+	private final int segmentMask;
+	private final Segment<K, V>[] segments;
+
+	/*----------------------------------HashEntry节点类--------------------------------------*/
+	private static class HashEntry<K, V> {
+		final int hash;
+		final K key;
+		volatile V value;
+		volatile HashEntry<K, V> next;
+
+		HashEntry (int hash, K key, V value, HashEntry<K, V> next) {
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+			this.next = next;
+		}
+	}
+
+	/*----------------------------------Segment类--------------------------------------*/
+	// 每个Segment就是一个小型的HashMap, 继承ReentrantLock, 所有的写操作都需要先获取该Segment的锁
+	private static class Segment<K, V> extends ReentrantLock {
+		private static final long serialVersionUID = 2249069246763182397L;
+
+		final float loadFactor;
+		// AtomicReferenceArray中的get/set具有volatile语义, 保证get不加锁也能读到最新的桶
+		volatile AtomicReferenceArray<HashEntry<K, V>> table;
+		volatile int count; // 该Segment中的元素个数
+		int modCount; // 写操作的次数, 用于size方法判断统计期间是否有其他线程修改
+		int threshold;
+
+		Segment (float loadFactor, int capacity) {
+			this.loadFactor = loadFactor;
+			this.table = new AtomicReferenceArray<>( capacity );
+			this.threshold = (int) ( capacity * loadFactor );
+		}
+
+		V get (Object key, int hash) {
+			AtomicReferenceArray<HashEntry<K, V>> tab = table;
+			HashEntry<K, V> e = tab.get( hash & ( tab.length() - 1 ) );
+
+			while ( e != null ) {
+				if ( e.hash == hash && key.equals( e.key ) )
+					return e.value;
+
+				e = e.next;
+			}
+
+			return null;
+		}
+
+		V put (K key, int hash, V value, boolean onlyIfAbsent) {
+			lock();
+			try {
+				AtomicReferenceArray<HashEntry<K, V>> tab = table;
+				int index = hash & ( tab.length() - 1 );
+				HashEntry<K, V> first = tab.get( index );
+
+				for ( HashEntry<K, V> e = first; e != null; e = e.next ) {
+					if ( e.hash == hash && key.equals( e.key ) ) { // key已经存在, 用新值替换旧值
+						V oldValue = e.value;
+						if ( !onlyIfAbsent ) {
+							e.value = value;
+							modCount ++;
+						}
+
+						return oldValue;
+					}
+				}
+
+				// key不存在, 先判断是否需要扩容, 然后在链表头部插入新的节点
+				if ( count + 1 > threshold && tab.length() < MAXIMUM_CAPACITY ) {
+					tab = rehash();
+					index = hash & ( tab.length() - 1 );
+					first = tab.get( index );
+				}
+
+				tab.set( index, new HashEntry<>( hash, key, value, first ) );
+				modCount ++;
+				count ++;
+
+				return null;
+			} finally {
+				unlock();
+			}
+		}
+
+		V remove (Object key, int hash) {
+			lock();
+			try {
+				AtomicReferenceArray<HashEntry<K, V>> tab = table;
+				int index = hash & ( tab.length() - 1 );
+
+				HashEntry<K, V> prev = null;
+				for ( HashEntry<K, V> e = tab.get( index ); e != null; e = e.next ) {
+					if ( e.hash == hash && key.equals( e.key ) ) {
+						// 正在读的线程如果停留在e上, 仍然可以通过e.next继续往后遍历, 不会受到影响
+						if ( prev == null ) {
+							tab.set( index, e.next );
+						} else {
+							prev.next = e.next;
+						}
+
+						modCount ++;
+						count --;
+
+						return e.value;
+					}
+
+					prev = e;
+				}
+
+				return null;
+			} finally {
+				unlock();
+			}
+		}
+
+		/*
+			扩容为原来的两倍, 与JDK7的做法一样, 不会修改旧链表中的节点(正在读旧table的线程不受影响):
+			  <1> 找到链表尾部连续的、在新table中索引相同的一段节点(lastRun), 这一段直接整体复用
+			  <2> lastRun之前的节点复制一份新的节点, 放到新table对应的位置
+			新的table构建完成后再赋值给table属性, 之后的get就能看到新的table了
+		 */
+		private AtomicReferenceArray<HashEntry<K, V>> rehash () {
+			AtomicReferenceArray<HashEntry<K, V>> oldTable = table;
+			int oldCapacity = oldTable.length();
+			int newCapacity = oldCapacity << 1;
+			AtomicReferenceArray<HashEntry<K, V>> newTable = new AtomicReferenceArray<>( newCapacity );
+			int sizeMask = newCapacity - 1;
+
+			for ( int i = 0; i < oldCapacity; i ++ ) {
+				HashEntry<K, V> e = oldTable.get( i );
+				if ( e == null )
+					continue;
+
+				HashEntry<K, V> lastRun = e;
+				int lastIndex = e.hash & sizeMask;
+				for ( HashEntry<K, V> last = e.next; last != null; last = last.next ) {
+					int k = last.hash & sizeMask;
+					if ( k != lastIndex ) {
+						lastIndex = k;
+						lastRun = last;
+					}
+				}
+				newTable.set( lastIndex, lastRun );
+
+				for ( HashEntry<K, V> p = e; p != lastRun; p = p.next ) {
+					int k = p.hash & sizeMask;
+					newTable.set( k, new HashEntry<>( p.hash, p.key, p.value, newTable.get( k ) ) );
+				}
+			}
+
+			threshold = (int) ( newCapacity * loadFactor );
+			table = newTable;
+
+			return newTable;
+		}
+	}
+
+	/*----------------------------------构造器--------------------------------------*/
+	public ConcurrentHashMapV1 () {
+		this( DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	/**
+	 * @param initialCapacity 所有Segment中table长度的总和
+	 * @param concurrencyLevel 并发级别, Segment的个数为大于等于该值的最小的2的幂, 多核机器上可以调大该值
+	 */
+	public ConcurrentHashMapV1 (int initialCapacity, float loadFactor, int concurrencyLevel) {
+		if ( !( loadFactor > 0 ) || initialCapacity < 0 || concurrencyLevel <= 0 )
+			throw new IllegalArgumentException();
+
+		if ( concurrencyLevel > MAX_SEGMENTS )
+			concurrencyLevel = MAX_SEGMENTS;
+		if ( initialCapacity > MAXIMUM_CAPACITY )
+			initialCapacity = MAXIMUM_CAPACITY;
+
+		// 计算Segment数组的长度ssize, 以及利用hash的高几位来计算Segment的索引
+		int sshift = 0;
+		int ssize = 1;
+		while ( ssize < concurrencyLevel ) {
+			++ sshift;
+			ssize <<= 1;
+		}
+		this.segmentShift = 32 - sshift;
+		this.segmentMask = ssize - 1;
+
+		// 计算每个Segment中table的长度, 同样需要是2的幂
+		int c = initialCapacity / ssize;
+		if ( c * ssize < initialCapacity )
+			++ c;
+		int cap = MIN_SEGMENT_TABLE_CAPACITY;
+		while ( cap < c ) {
+			cap <<= 1;
+		}
+
+		this.segments = (Segment<K, V>[]) new Segment<?, ?>[ssize];
+		for ( int i = 0; i < ssize; i ++ ) {
+			segments[i] = new Segment<>( loadFactor, cap );
+		}
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	public V put (K key, V value) {
+		if ( value == null )
+			throw new NullPointerException();
+
+		int hash = hash( key );
+		return segmentFor( hash ).put( key, hash, value, false );
+	}
+
+	// key不存在的时候才放入, 返回原来的值, 与先get再put不同, 整个过程都在Segment的锁中完成
+	public V putIfAbsent (K key, V value) {
+		if ( value == null )
+			throw new NullPointerException();
+
+		int hash = hash( key );
+		return segmentFor( hash ).put( key, hash, value, true );
+	}
+
+	public V get (Object key) {
+		int hash = hash( key );
+		return segmentFor( hash ).get( key, hash );
+	}
+
+	public boolean containsKey (Object key) {
+		return get( key ) != null;
+	}
+
+	public V remove (Object key) {
+		int hash = hash( key );
+		return segmentFor( hash ).remove( key, hash );
+	}
+
+	/*
+		统计元素个数: 先不加锁统计RETRIES_BEFORE_LOCK次, 如果前后两次统计时所有Segment的modCount之和
+		相同, 说明统计期间没有发生修改, 结果是准确的, 否则对所有的Segment加锁后再统计
+	 */
+	public int size () {
+		long last = -1;
+		for ( int retries = 0; retries < RETRIES_BEFORE_LOCK; retries ++ ) {
+			long sum = 0;
+			long modSum = 0;
+			for ( Segment<K, V> segment: segments ) {
+				sum += segment.count; // 先读volatile的count, 保证之后读到的modCount是最新的
+				modSum += segment.modCount;
+			}
+
+			if ( modSum == last )
+				return (int) Math.min( sum, Integer.MAX_VALUE );
+			last = modSum;
+		}
+
+		for ( Segment<K, V> segment: segments ) {
+			segment.lock();
+		}
+		try {
+			long sum = 0;
+			for ( Segment<K, V> segment: segments ) {
+				sum += segment.count;
+			}
+
+			return (int) Math.min( sum, Integer.MAX_VALUE );
+		} finally {
+			for ( Segment<K, V> segment: segments ) {
+				segment.unlock();
+			}
+		}
+	}
+
+	public boolean isEmpty () {
+		for ( Segment<K, V> segment: segments ) {
+			if ( segment.count != 0 )
+				return false;
+		}
+
+		return true;
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	private Segment<K, V> segmentFor (int hash) {
+		return segments[( hash >>> segmentShift ) & segmentMask];
+	}
+
+	/*
+		HashMapV4中的二次哈希只是将高16位异或到低16位上, 高位并没有被打散, 而这里需要利用高位来计算
+		Segment的索引, 像Integer这种小的key高位全是0, 会全部落到同一个Segment中, 所以采用JDK7中的
+		Wang/Jenkins哈希算法, 使得每一位都能受到hashCode中所有位的影响
+	 */
+	private static int hash (Object key) {
+		int h = key.hashCode();
+
+		h += ( h << 15 ) ^ 0xffffcd7d;
+		h ^= ( h >>> 10 );
+		h += ( h << 3 );
+		h ^= ( h >>> 6 );
+		h += ( h << 2 ) + ( h << 14 );
+		return h ^ ( h >>> 16 );
+	}
+}
@@ -0,0 +1,447 @@
+package com.fightzhong.hashmap;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 仿照JDK8中ConcurrentHashMap实现的线程安全的HashMap, 与ConcurrentHashMapV1的分段锁相比, 锁的粒度
+ * 从一个Segment缩小到了一个桶:
+ *   <1> 往空桶中放入元素时, 直接利用CAS将新节点设置为桶的头节点, 不需要加锁
+ *   <2> 桶不为空时, 只对桶的头节点加synchronized锁, 不同桶之间的写操作互不影响
+ *   <3> 扩容时将table按照stride划分成一段一段的区间, 线程通过CAS领取区间进行迁移, 迁移完成的桶放入
+ *       一个ForwardingNode, 其他线程在put/remove时如果遇到ForwardingNode, 就会一起帮忙迁移(helpTransfer),
+ *       而get遇到ForwardingNode时会直接去新的table中查找, 不会被扩容阻塞
+ *
+ * sizeCtl属性的含义:
+ *   <1> 大于0: 扩容阈值
+ *   <2> -1: 正在初始化table
+ *   <3> 小于-1: 正在扩容, 高16位是扩容标识(由旧table的长度计算得到, 用于区分不同轮次的扩容),
+ *       低16位是参与扩容的线程数 + 1
+ *
+ * 与ConcurrentHashMapV1一样, 桶中采用链表而不是红黑树, 以保证get不加锁也能安全的读,
+ * key和value都不能为null
+ */
+@SuppressWarnings( { "unchecked", "rawtypes" } )
+public class ConcurrentHashMapV2<K, V> {
+	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的数组长度
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+	private static int MIN_TRANSFER_STRIDE = 16; // 每个线程一次领取的迁移区间的最小长度
+	private static int RESIZE_STAMP_BITS = 16;
+	private static int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+	private static int MAX_RESIZERS = ( 1 << ( 32 - RESIZE_STAMP_BITS ) ) - 1; // 最多参与扩容的线程数
+	private static int MOVED = -1; // ForwardingNode的hash值, 正常节点的hash值都是非负数
+	private static int HASH_BITS = 0x7fffffff;
+	private static int NCPU = Runtime.getRuntime().availableProcessors();
+
+	private static AtomicIntegerFieldUpdater<ConcurrentHashMapV2> SIZE_CTL =
+		AtomicIntegerFieldUpdater.newUpdater( ConcurrentHashMapV2.class, "sizeCtl" );
+	private static AtomicIntegerFieldUpdater<ConcurrentHashMapV2> TRANSFER_INDEX =
+		AtomicIntegerFieldUpdater.newUpdater( ConcurrentHashMapV2.class, "transferIndex" );
+
+	// AtomicReferenceArray中的get/set/compareAndSet具有volatile语义, 代替JDK中的Unsafe操作数组
+	private volatile AtomicReferenceArray<Node<K, V>> table;
+	private volatile AtomicReferenceArray<Node<K, V>> nextTable; // 扩容过程中的新table
+	private volatile int sizeCtl;
+	private volatile int transferIndex; // 下一个可以被领取的迁移区间的右边界(不包括)
+	private final LongAdder count = new LongAdder(); // 元素个数, 多个线程同时修改时分散到不同的cell中
+
+	/*----------------------------------Node节点类--------------------------------------*/
+	private static class Node<K, V> {
+		final int hash;
+		final K key;
+		volatile V val;
+		volatile Node<K, V> next;
+
+		Node (int hash, K key, V val, Node<K, V> next) {
+			this.hash = hash;
+			this.key = key;
+			this.val = val;
+			this.next = next;
+		}
+
+		// 在以当前节点开头的链表中查找
+		Node<K, V> find (int h, Object k) {
+			Node<K, V> e = this;
+			do {
+				if ( e.hash == h && k.equals( e.key ) )
+					return e;
+			} while ( ( e = e.next ) != null );
+
+			return null;
+		}
+	}
+
+	// 已经迁移完成的桶中放入的节点, 通过nextTable指向新的table
+	private static class ForwardingNode<K, V> extends Node<K, V> {
+		final AtomicReferenceArray<Node<K, V>> nextTable;
+
+		ForwardingNode (AtomicReferenceArray<Node<K, V>> nextTable) {
+			super( MOVED, null, null, null );
+			this.nextTable = nextTable;
+		}
+
+		// 去新的table中查找, 新的table如果也在扩容, 则继续往下一个table查找
+		@Override
+		Node<K, V> find (int h, Object k) {
+			AtomicReferenceArray<Node<K, V>> tab = nextTable;
+			while ( true ) {
+				Node<K, V> e = tab.get( ( tab.length() - 1 ) & h );
+				if ( e == null )
+					return null;
+
+				if ( e instanceof ForwardingNode ) {
+					tab = ( (ForwardingNode<K, V>) e ).nextTable;
+					continue;
+				}
+
+				return e.find( h, k );
+			}
+		}
+	}
+
+	/*----------------------------------构造器--------------------------------------*/
+	public ConcurrentHashMapV2 () {
+		this( DEFAULT_INITIAL_CAPACITY );
+	}
+
+	// table延迟到第一次put的时候才创建, 在此之前sizeCtl保存的是table的初始长度
+	public ConcurrentHashMapV2 (int initialCapacity) {
+		if ( initialCapacity < 0 )
+			throw new IllegalArgumentException( "非法的初始容量: " + initialCapacity );
+
+		int cap = 1;
+		while ( cap < initialCapacity && cap < MAXIMUM_CAPACITY ) {
+			cap <<= 1;
+		}
+		this.sizeCtl = cap;
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	public V put (K key, V value) {
+		return putVal( key, value, false );
+	}
+
+	// key不存在的时候才放入, 返回原来的值, 整个过程在桶的锁中完成
+	public V putIfAbsent (K key, V value) {
+		return putVal( key, value, true );
+	}
+
+	private V putVal (K key, V value, boolean onlyIfAbsent) {
+		if ( key == null || value == null )
+			throw new NullPointerException();
+
+		int hash = spread( key.hashCode() );
+		AtomicReferenceArray<Node<K, V>> tab = table;
+		while ( true ) {
+			Node<K, V> f;
+			int n, i;
+			if ( tab == null || ( n = tab.length() ) == 0 ) {
+				tab = initTable();
+			} else if ( ( f = tab.get( i = ( n - 1 ) & hash ) ) == null ) {
+				// 空桶, 直接CAS放入, 失败说明有其他线程抢先放入了, 重新循环
+				if ( tab.compareAndSet( i, null, new Node<>( hash, key, value, null ) ) )
+					break;
+			} else if ( f.hash == MOVED ) {
+				// 该桶已经迁移到新的table中了, 帮忙扩容, 完成后在新的table中继续放入
+				tab = helpTransfer( tab, f );
+			} else {
+				V oldVal = null;
+				boolean added = false;
+				boolean validated = false;
+
+				synchronized ( f ) {
+					// 加锁之后需要再判断一次头节点有没有发生变化(可能被删除或者被迁移了)
+					if ( tab.get( i ) == f ) {
+						validated = true;
+
+						Node<K, V> e = f;
+						while ( true ) {
+							if ( e.hash == hash && key.equals( e.key ) ) {
+								oldVal = e.val;
+								if ( !onlyIfAbsent )
+									e.val = value;
+								break;
+							}
+
+							if ( e.next == null ) {
+								e.next = new Node<>( hash, key, value, null );
+								added = true;
+								break;
+							}
+							e = e.next;
+						}
+					}
+				}
+
+				if ( validated ) {
+					if ( !added )
+						return oldVal;
+					break;
+				}
+			}
+		}
+
+		addCount( 1 );
+		return null;
+	}
+
+	public V get (Object key) {
+		int h = spread( key.hashCode() );
+		AtomicReferenceArray<Node<K, V>> tab = table;
+		if ( tab == null )
+			return null;
+
+		Node<K, V> e = tab.get( ( tab.length() - 1 ) & h );
+		if ( e == null )
+			return null;
+
+		// 头节点是ForwardingNode时, find会去新的table中查找
+		Node<K, V> p = e.find( h, key );
+		return p == null ? null : p.val;
+	}
+
+	public boolean containsKey (Object key) {
+		return get( key ) != null;
+	}
+
+	public V remove (Object key) {
+		int hash = spread( key.hashCode() );
+		AtomicReferenceArray<Node<K, V>> tab = table;
+		while ( true ) {
+			Node<K, V> f;
+			int n, i;
+			if ( tab == null || ( n = tab.length() ) == 0 || ( f = tab.get( i = ( n - 1 ) & hash ) ) == null )
+				return null;
+
+			if ( f.hash == MOVED ) {
+				tab = helpTransfer( tab, f );
+				continue;
+			}
+
+			V oldVal = null;
+			boolean validated = false;
+			synchronized ( f ) {
+				if ( tab.get( i ) == f ) {
+					validated = true;
+
+					Node<K, V> prev = null;
+					for ( Node<K, V> e = f; e != null; e = e.next ) {
+						if ( e.hash == hash && key.equals( e.key ) ) {
+							oldVal = e.val;
+							if ( prev == null ) {
+								tab.set( i, e.next );
+							} else {
+								prev.next = e.next;
+							}
+							break;
+						}
+
+						prev = e;
+					}
+				}
+			}
+
+			if ( validated ) {
+				if ( oldVal != null )
+					addCount( -1 );
+
+				return oldVal;
+			}
+		}
+	}
+
+	/*----------------------------------初始化及扩容--------------------------------------*/
+	// 只有将sizeCtl从非负数CAS为-1的线程才能创建table, 其他线程自旋等待
+	private AtomicReferenceArray<Node<K, V>> initTable () {
+		AtomicReferenceArray<Node<K, V>> tab;
+		while ( ( tab = table ) == null || tab.length() == 0 ) {
+			int sc = sizeCtl;
+			if ( sc < 0 ) {
+				Thread.yield();
+			} else if ( SIZE_CTL.compareAndSet( this, sc, -1 ) ) {
+				try {
+					if ( ( tab = table ) == null || tab.length() == 0 ) {
+						int n = sc > 0 ? sc : DEFAULT_INITIAL_CAPACITY;
+						table = tab = new AtomicReferenceArray<>( n );
+						sc = n - ( n >>> 2 ); // 阈值为0.75n
+					}
+				} finally {
+					sizeCtl = sc;
+				}
+				break;
+			}
+		}
+
+		return tab;
+	}
+
+	// 修改元素个数, 增加元素后如果达到了扩容阈值, 则发起扩容或者加入正在进行的扩容
+	private void addCount (long x) {
+		count.add( x );
+		if ( x <= 0 )
+			return;
+
+		long s = count.sum();
+		int sc;
+		AtomicReferenceArray<Node<K, V>> tab, nt;
+		int n;
+		while ( s >= (long) ( sc = sizeCtl ) && ( tab = table ) != null
+				&& ( n = tab.length() ) < MAXIMUM_CAPACITY ) {
+			int rs = resizeStamp( n ) << RESIZE_STAMP_SHIFT;
+			if ( sc < 0 ) {
+				// 扩容已经结束、扩容线程数已满或者已经没有可以领取的区间, 不需要再加入
+				if ( sc == rs + MAX_RESIZERS || sc == rs + 1 || ( nt = nextTable ) == null || transferIndex <= 0 )
+					break;
+				if ( SIZE_CTL.compareAndSet( this, sc, sc + 1 ) )
+					transfer( tab, nt );
+			} else if ( SIZE_CTL.compareAndSet( this, sc, rs + 2 ) ) {
+				// 第一个发起扩容的线程, 低16位设置为2
+				transfer( tab, null );
+			}
+
+			s = count.sum();
+		}
+	}
+
+	// 帮助迁移, 返回新的table
+	private AtomicReferenceArray<Node<K, V>> helpTransfer (AtomicReferenceArray<Node<K, V>> tab, Node<K, V> f) {
+		AtomicReferenceArray<Node<K, V>> nextTab = ( (ForwardingNode<K, V>) f ).nextTable;
+		int rs = resizeStamp( tab.length() ) << RESIZE_STAMP_SHIFT;
+		int sc;
+
+		// 只有当前这一轮扩容还没有结束的时候才加入
+		while ( nextTab == nextTable && table == tab && ( sc = sizeCtl ) < 0 ) {
+			if ( sc == rs + MAX_RESIZERS || sc == rs + 1 || transferIndex <= 0 )
+				break;
+			if ( SIZE_CTL.compareAndSet( this, sc, sc + 1 ) ) {
+				transfer( tab, nextTab );
+				break;
+			}
+		}
+
+		return nextTab;
+	}
+
+	/*
+		将tab中的桶迁移到nextTab中, 每个线程每次通过CAS transferIndex领取[bound, i]这一段区间, 从后往前迁移:
+		  <1> 空桶直接CAS放入ForwardingNode, 表示已经处理过了
+		  <2> 非空桶对头节点加锁, 与HashMapV4的扩容一样拆分成lo和hi两条链表, 分别放到新table的i和i + n位置,
+		      与ConcurrentHashMapV1一样复用尾部的lastRun, 其余节点复制一份, 不修改旧链表,
+		      这样正在旧table上读的线程不会受到影响, 最后在旧table的i位置放入ForwardingNode
+		所有区间都领取完后, 每个线程退出时将sizeCtl减1, 最后一个退出的线程再检查一遍整个旧table,
+		然后将nextTab设置为table
+	 */
+	private void transfer (AtomicReferenceArray<Node<K, V>> tab, AtomicReferenceArray<Node<K, V>> nextTab) {
+		int n = tab.length();
+		int stride = NCPU > 1 ? ( n >>> 3 ) / NCPU : n;
+		if ( stride < MIN_TRANSFER_STRIDE )
+			stride = MIN_TRANSFER_STRIDE;
+
+		if ( nextTab == null ) { // 第一个发起扩容的线程负责创建新的table
+			nextTab = new AtomicReferenceArray<>( n << 1 );
+			nextTable = nextTab;
+			transferIndex = n;
+		}
+
+		int nextn = nextTab.length();
+		ForwardingNode<K, V> fwd = new ForwardingNode<>( nextTab );
+		boolean advance = true;
+		boolean finishing = false;
+		for ( int i = 0, bound = 0; ; ) {
+			Node<K, V> f;
+			int fh;
+
+			// 在当前区间中前进一个桶, 当前区间处理完了则领取下一个区间
+			while ( advance ) {
+				int nextIndex, nextBound;
+				if ( -- i >= bound || finishing ) {
+					advance = false;
+				} else if ( ( nextIndex = transferIndex ) <= 0 ) {
+					i = -1;
+					advance = false;
+				} else if ( TRANSFER_INDEX.compareAndSet( this, nextIndex,
+						nextBound = ( nextIndex > stride ? nextIndex - stride : 0 ) ) ) {
+					bound = nextBound;
+					i = nextIndex - 1;
+					advance = false;
+				}
+			}
+
+			if ( i < 0 || i >= n || i + n >= nextn ) {
+				int sc;
+				if ( finishing ) {
+					nextTable = null;
+					table = nextTab;
+					sizeCtl = ( n << 1 ) - ( n >>> 1 ); // 新的阈值为0.75 * 2n
+					return;
+				}
+
+				if ( SIZE_CTL.compareAndSet( this, sc = sizeCtl, sc - 1 ) ) {
+					// 不是最后一个退出的线程, 直接返回
+					if ( ( sc - 2 ) != resizeStamp( n ) << RESIZE_STAMP_SHIFT )
+						return;
+
+					// 最后一个退出的线程, 从头检查一遍, 确保所有的桶都已经迁移完成
+					finishing = advance = true;
+					i = n;
+				}
+			} else if ( ( f = tab.get( i ) ) == null ) {
+				advance = tab.compareAndSet( i, null, fwd );
+			} else if ( ( fh = f.hash ) == MOVED ) {
+				advance = true; // 已经处理过了
+			} else {
+				synchronized ( f ) {
+					if ( tab.get( i ) == f ) {
+						// 找到尾部连续的、迁移后位置相同的一段节点
+						int runBit = fh & n;
+						Node<K, V> lastRun = f;
+						for ( Node<K, V> p = f.next; p != null; p = p.next ) {
+							int b = p.hash & n;
+							if ( b != runBit ) {
+								runBit = b;
+								lastRun = p;
+							}
+						}
+
+						Node<K, V> ln = runBit == 0 ? lastRun : null;
+						Node<K, V> hn = runBit == 0 ? null : lastRun;
+						for ( Node<K, V> p = f; p != lastRun; p = p.next ) {
+							if ( ( p.hash & n ) == 0 ) {
+								ln = new Node<>( p.hash, p.key, p.val, ln );
+							} else {
+								hn = new Node<>( p.hash, p.key, p.val, hn );
+							}
+						}
+
+						nextTab.set( i, ln );
+						nextTab.set( i + n, hn );
+						tab.set( i, fwd );
+						advance = true;
+					}
+				}
+			}
+		}
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	// 与HashMapV4相同的二次哈希, 并且保证结果为非负数, 负数的hash值留给ForwardingNode这种特殊节点使用
+	private static int spread (int h) {
+		return ( h ^ ( h >>> 16 ) ) & HASH_BITS;
+	}
+
+	// 扩容标识, 不同长度的table扩容时得到的标识不同, 左移RESIZE_STAMP_SHIFT位后一定是负数
+	private static int resizeStamp (int n) {
+		return Integer.numberOfLeadingZeros( n ) | ( 1 << ( RESIZE_STAMP_BITS - 1 ) );
+	}
+
+	/*----------------------------------简单的方法--------------------------------------*/
+	public int size () {
+		long n = count.sum();
+		return n < 0 ? 0 : ( n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n );
+	}
+
+	public boolean isEmpty () {
+		return count.sum() <= 0;
+	}
+}
@@ -0,0 +1,540 @@
+package com.fightzhong.hashmap;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+/**
+ * 分桶的布谷鸟哈希(bucketized cuckoo hashing), 每个key只可能存放在两个桶中的一个, 查找最多访问两个桶:
+ *   <1> 哈希值经过两个不同的函数得到两个桶, 每个桶有4个槽位, key要么在这8个槽位中, 要么在stash中
+ *   <2> 插入时两个桶都满了, 就随机踢出其中一个元素, 把被踢出的元素放到它的另一个桶中, 如果另一个桶也满了,
+ *       继续踢出, 直到找到空槽位或者踢出的次数达到上限(MAX_KICKS)
+ *   <3> 达到上限后无处安放的元素放入stash(一个很小的溢出数组), stash满了说明当前的容量不够, 进行扩容
+ * 对于hashCode互不相同的key, 查找的代价有明确的上界: 两个桶中的8个槽位 + stash中最多STASH_SIZE个元素,
+ * 与HashMapV4中桶内链表、红黑树的长度无关, 适合对尾延迟敏感的场景; 代价是插入需要踢出元素, 并且负载因子固定为0.9
+ *
+ * 哈希值通过SeededHash使用每个哈希表自己的随机种子计算, String根据内容重新计算哈希值, hashCode相同的字符串
+ * (例如"Aa"和"BB"的任意组合)也会被分散开; 但是其他类型中hashCode完全相同的key无论怎么哈希都会落到相同的两个桶中,
+ * 超过8 + STASH_SIZE个时扩容也无法解决, 此时(负载因子低于一半时stash仍然满了)不再扩容, 而是让stash变长,
+ * 查找退化为对stash的线性扫描, 上面的上界不再成立
+ */
+@SuppressWarnings( "unchecked" )
+public class CuckooHashMap<K, V> implements HashMapEngine<K, V> {
+	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的槽位个数
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+	private static int BUCKET_SIZE = 4; // 每个桶的槽位个数
+	private static int STASH_SIZE = 4; // stash的默认长度
+	private static int MAX_KICKS = 256; // 一次插入最多踢出多少个元素
+	private static float LOAD_FACTOR = 0.9f;
+	private static Object NULL_KEY = new Object(); // key为null时用该对象代替, 槽位中的null表示空槽位
+
+	// 下标为i的槽位中: 哈希值存放在hashes[i]中, key、value存放在kv[2i]、kv[2i + 1]中, 桶b由槽位[4b, 4b + 4)组成
+	private int[] hashes;
+	private Object[] kv;
+
+	// 溢出的元素, 排列在[0, stashSize)中
+	private int[] stashHashes;
+	private Object[] stashKv;
+	private int stashSize;
+
+	private int size;
+	private int threshold; // 元素个数达到该值时进行扩容
+	private int modCount;
+	private int random = 0x2545F491; // 选择被踢出的元素的xorshift随机数
+
+	// 该哈希表的哈希种子, 参考SeededHash
+	private final long k0 = ThreadLocalRandom.current().nextLong();
+	private final long k1 = ThreadLocalRandom.current().nextLong();
+
+	/*----------------------------------构造器--------------------------------------*/
+	public CuckooHashMap () {
+		this( DEFAULT_INITIAL_CAPACITY );
+	}
+
+	public CuckooHashMap (int initialCapacity) {
+		if ( initialCapacity < 0 )
+			throw new IllegalArgumentException( "非法的初始容量: " + initialCapacity );
+
+		init( capacityFor( initialCapacity ) );
+		stashHashes = new int[STASH_SIZE];
+		stashKv = new Object[STASH_SIZE << 1];
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	@Override
+	public V put (K key, V val) {
+		Object k = maskNull( key );
+		int hash = hash( k );
+
+		int index = find( k, hash );
+		if ( index != -1 ) { // 已经存在该key, 用新值替换旧值
+			V oldVal = (V) valAt( index );
+			setValAt( index, val );
+			return oldVal;
+		}
+
+		insert( k, val, hash );
+		return null;
+	}
+
+	@Override
+	public V get (K key) {
+		Object k = maskNull( key );
+		int index = find( k, hash( k ) );
+		return index == -1 ? null : (V) valAt( index );
+	}
+
+	@Override
+	public boolean containsKey (K key) {
+		Object k = maskNull( key );
+		return find( k, hash( k ) ) != -1;
+	}
+
+	@Override
+	public V remove (K key) {
+		Object k = maskNull( key );
+		int index = find( k, hash( k ) );
+		if ( index == -1 )
+			return null;
+
+		V oldVal = (V) valAt( index );
+		erase( index );
+		drainStash();
+		return oldVal;
+	}
+
+	/*
+		只查找一次, 找到后直接修改或者删除, 找不到则插入新的元素,
+		remapping中如果修改了哈希表, 之前找到的位置会失效, 所以此时抛出ConcurrentModificationException
+	 */
+	@Override
+	public V compute (K key, Remapping<K, V> remapping) {
+		Object k = maskNull( key );
+		int hash = hash( k );
+		int index = find( k, hash );
+		int expectedModCount = modCount;
+
+		if ( index != -1 ) {
+			Object newVal = remapping.apply( key, (V) valAt( index ), true );
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			if ( newVal == KEEP_MAPPING )
+				return (V) valAt( index );
+			if ( newVal != NO_MAPPING ) {
+				setValAt( index, newVal );
+				return (V) newVal;
+			}
+
+			erase( index );
+			drainStash();
+			return null;
+		}
+
+		Object newVal = remapping.apply( key, null, false );
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+		if ( newVal == NO_MAPPING || newVal == KEEP_MAPPING )
+			return null;
+
+		insert( k, newVal, hash );
+		return (V) newVal;
+	}
+
+	@Override
+	public void clear () {
+		Arrays.fill( kv, null );
+		Arrays.fill( stashKv, null );
+		stashSize = 0;
+		size = 0;
+		modCount ++;
+	}
+
+	@Override
+	public int size () {
+		return size;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/*----------------------------------查找及插入--------------------------------------*/
+	/*
+		查找key所在的位置, 不存在时返回-1; 表中的槽位返回槽位的下标, stash中的元素返回hashes.length + 在stash中的下标,
+		最多访问两个桶以及stash
+	 */
+	private int find (Object k, int hash) {
+		int mask = bucketMask();
+		int b1 = bucket1( hash, mask );
+		int index = findInBucket( b1, k, hash );
+		if ( index != -1 )
+			return index;
+
+		index = findInBucket( bucket2( hash, b1, mask ), k, hash );
+		if ( index != -1 )
+			return index;
+
+		for ( int i = 0; i < stashSize; i ++ ) {
+			if ( stashHashes[i] == hash && Objects.equals( stashKv[i << 1], k ) )
+				return hashes.length + i;
+		}
+
+		return -1;
+	}
+
+	private int findInBucket (int bucket, Object k, int hash) {
+		int start = bucket * BUCKET_SIZE;
+		for ( int i = start; i < start + BUCKET_SIZE; i ++ ) {
+			if ( hashes[i] == hash && Objects.equals( kv[i << 1], k ) )
+				return i;
+		}
+
+		return -1;
+	}
+
+	// 插入一个确定不存在的key, 元素个数达到阈值时先扩容
+	private void insert (Object k, Object val, int hash) {
+		if ( size >= threshold )
+			resize();
+
+		place( k, val, hash );
+		size ++;
+		modCount ++;
+	}
+
+	/*
+		为元素寻找位置: 先看两个桶中有没有空槽位, 都满了则从其中一个桶开始, 随机踢出一个元素并占用它的槽位,
+		被踢出的元素带到它的另一个桶中继续寻找, 踢出MAX_KICKS次仍然没有找到空槽位时, 把手上的元素放入stash
+	 */
+	private void place (Object k, Object val, int hash) {
+		int mask = bucketMask();
+		int b1 = bucket1( hash, mask );
+		int b2 = bucket2( hash, b1, mask );
+		if ( tryPlace( b1, k, val, hash ) || tryPlace( b2, k, val, hash ) )
+			return;
+
+		int bucket = ( nextRandom() & 1 ) == 0 ? b1 : b2;
+		for ( int kicks = 0; kicks < MAX_KICKS; kicks ++ ) {
+			int victim = bucket * BUCKET_SIZE + ( nextRandom() & ( BUCKET_SIZE - 1 ) );
+			Object victimKey = kv[victim << 1];
+			Object victimVal = kv[( victim << 1 ) + 1];
+			int victimHash = hashes[victim];
+			setSlot( victim, k, val, hash );
+
+			k = victimKey;
+			val = victimVal;
+			hash = victimHash;
+			bucket = alternate( hash, bucket, mask );
+			if ( tryPlace( bucket, k, val, hash ) )
+				return;
+		}
+
+		stash( k, val, hash );
+	}
+
+	// 桶中有空槽位时放入并返回true
+	private boolean tryPlace (int bucket, Object k, Object val, int hash) {
+		int start = bucket * BUCKET_SIZE;
+		for ( int i = start; i < start + BUCKET_SIZE; i ++ ) {
+			if ( kv[i << 1] == null ) {
+				setSlot( i, k, val, hash );
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/*
+		放入stash, stash满了时: 负载因子不低于一半说明表确实太挤了, 扩容后重新寻找位置;
+		否则扩容也无济于事(大量key的hashCode相同), 让stash变长
+	 */
+	private void stash (Object k, Object val, int hash) {
+		if ( stashSize == stashHashes.length ) {
+			if ( size >= hashes.length >>> 1 && hashes.length < MAXIMUM_CAPACITY ) {
+				resize();
+				place( k, val, hash );
+				return;
+			}
+
+			stashHashes = Arrays.copyOf( stashHashes, stashHashes.length << 1 );
+			stashKv = Arrays.copyOf( stashKv, stashKv.length << 1 );
+		}
+
+		stashHashes[stashSize] = hash;
+		stashKv[stashSize << 1] = k;
+		stashKv[( stashSize << 1 ) + 1] = val;
+		stashSize ++;
+	}
+
+	/*
+		删除index位置的元素, 表中的元素直接清空槽位, 不会移动其他元素; stash中的元素用最后一个元素填补空位
+	 */
+	private void erase (int index) {
+		if ( index < hashes.length ) {
+			kv[index << 1] = null;
+			kv[( index << 1 ) + 1] = null;
+		} else {
+			int i = index - hashes.length;
+			int last = -- stashSize;
+			stashHashes[i] = stashHashes[last];
+			stashKv[i << 1] = stashKv[last << 1];
+			stashKv[( i << 1 ) + 1] = stashKv[( last << 1 ) + 1];
+			stashKv[last << 1] = null;
+			stashKv[( last << 1 ) + 1] = null;
+		}
+
+		size --;
+		modCount ++;
+	}
+
+	// 删除元素后表中可能空出了槽位, 把stash中能直接放回自己桶中的元素移回去, 让查找尽量不用扫描stash
+	private void drainStash () {
+		int mask = bucketMask();
+		for ( int i = stashSize - 1; i >= 0; i -- ) {
+			Object k = stashKv[i << 1];
+			Object val = stashKv[( i << 1 ) + 1];
+			int hash = stashHashes[i];
+			int b1 = bucket1( hash, mask );
+			if ( tryPlace( b1, k, val, hash ) || tryPlace( bucket2( hash, b1, mask ), k, val, hash ) ) {
+				erase( hashes.length + i );
+				size ++;
+			}
+		}
+	}
+
+	/*
+		槽位个数扩大为原来的两倍, 把表中以及stash中的元素重新放入; 放入过程中不会再次扩容,
+		因为扩容后的负载因子一定低于一半
+	 */
+	private void resize () {
+		if ( hashes.length >= MAXIMUM_CAPACITY )
+			throw new IllegalStateException( "哈希表已经达到最大容量" );
+
+		int[] oldHashes = hashes;
+		Object[] oldKv = kv;
+		int[] oldStashHashes = stashHashes;
+		Object[] oldStashKv = stashKv;
+		int oldStashSize = stashSize;
+
+		init( hashes.length << 1 );
+		stashHashes = new int[STASH_SIZE];
+		stashKv = new Object[STASH_SIZE << 1];
+		stashSize = 0;
+
+		for ( int i = 0; i < oldHashes.length; i ++ ) {
+			if ( oldKv[i << 1] != null )
+				place( oldKv[i << 1], oldKv[( i << 1 ) + 1], oldHashes[i] );
+		}
+		for ( int i = 0; i < oldStashSize; i ++ ) {
+			place( oldStashKv[i << 1], oldStashKv[( i << 1 ) + 1], oldStashHashes[i] );
+		}
+	}
+
+	private void init (int capacity) {
+		hashes = new int[capacity];
+		kv = new Object[capacity << 1];
+		threshold = (int) ( capacity * LOAD_FACTOR );
+	}
+
+	/*----------------------------------遍历--------------------------------------*/
+	// 先顺序扫描表中的槽位, 再扫描stash
+	public void forEach (BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull( action );
+
+		int expectedModCount = modCount;
+		for ( int i = 0; i < hashes.length + stashSize && modCount == expectedModCount; i ++ ) {
+			if ( keyAt( i ) != null )
+				action.accept( (K) unmaskNull( keyAt( i ) ), (V) valAt( i ) );
+		}
+
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator () {
+		return new EntryIterator();
+	}
+
+	/*
+		按照find返回的位置编号遍历, 通过迭代器删除时不把stash中的元素移回表中, 否则可能移到已经遍历过的槽位;
+		删除stash中的元素时最后一个元素会被移动到当前位置, 所以下一次需要重新访问当前的位置
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		int next = nextOccupied( 0 ); // 下一个存放了元素的位置, 没有时为-1
+		int lastReturned = -1;
+		int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext () {
+			return next != -1;
+		}
+
+		@Override
+		public Map.Entry<K, V> next () {
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+			if ( next == -1 )
+				throw new NoSuchElementException();
+
+			lastReturned = next;
+			next = nextOccupied( next + 1 );
+			return new Entry( lastReturned );
+		}
+
+		@Override
+		public void remove () {
+			if ( lastReturned == -1 )
+				throw new IllegalStateException();
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			erase( lastReturned );
+			if ( lastReturned >= hashes.length )
+				next = nextOccupied( lastReturned );
+			lastReturned = -1;
+			expectedModCount = modCount;
+		}
+
+		private int nextOccupied (int from) {
+			for ( int i = from; i < hashes.length + stashSize; i ++ ) {
+				if ( keyAt( i ) != null )
+					return i;
+			}
+
+			return -1;
+		}
+	}
+
+	// 元素在下一次结构性修改之前不会移动, Entry记录位置即可, setValue直接修改数组
+	private class Entry implements Map.Entry<K, V> {
+		final int index;
+		final K key;
+
+		Entry (int index) {
+			this.index = index;
+			this.key = (K) unmaskNull( keyAt( index ) );
+		}
+
+		@Override
+		public K getKey () {
+			return key;
+		}
+
+		@Override
+		public V getValue () {
+			return (V) valAt( index );
+		}
+
+		@Override
+		public V setValue (V value) {
+			V oldVal = (V) valAt( index );
+			setValAt( index, value );
+			return oldVal;
+		}
+
+		@Override
+		public boolean equals (Object o) {
+			if ( !( o instanceof Map.Entry ) )
+				return false;
+
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return Objects.equals( key, e.getKey() ) && Objects.equals( getValue(), e.getValue() );
+		}
+
+		@Override
+		public int hashCode () {
+			return Objects.hashCode( key ) ^ Objects.hashCode( getValue() );
+		}
+
+		@Override
+		public String toString () {
+			return key + "=" + getValue();
+		}
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	// find返回的位置编号对应的key、value, 编号不小于hashes.length时在stash中
+	private Object keyAt (int index) {
+		return index < hashes.length ? kv[index << 1] : stashKv[( index - hashes.length ) << 1];
+	}
+
+	private Object valAt (int index) {
+		return index < hashes.length ? kv[( index << 1 ) + 1] : stashKv[( ( index - hashes.length ) << 1 ) + 1];
+	}
+
+	private void setValAt (int index, Object val) {
+		if ( index < hashes.length ) {
+			kv[( index << 1 ) + 1] = val;
+		} else {
+			stashKv[( ( index - hashes.length ) << 1 ) + 1] = val;
+		}
+	}
+
+	private void setSlot (int index, Object k, Object val, int hash) {
+		hashes[index] = hash;
+		kv[index << 1] = k;
+		kv[( index << 1 ) + 1] = val;
+	}
+
+	private int bucketMask () {
+		return hashes.length / BUCKET_SIZE - 1;
+	}
+
+	// 第一个桶取哈希值的低位
+	private static int bucket1 (int hash, int mask) {
+		return hash & mask;
+	}
+
+	/*
+		第二个桶取哈希值乘以黄金分割常数后的高32位, 与低位无关, 两个桶相同时取相邻的桶,
+		保证只有一个桶时以外两个桶总是不同的
+	 */
+	private static int bucket2 (int hash, int b1, int mask) {
+		int b2 = (int) ( ( hash * 0x9E3779B97F4A7C15L ) >>> 32 ) & mask;
+		return b2 == b1 ? b1 ^ ( 1 & mask ) : b2;
+	}
+
+	// 元素当前在bucket中, 返回它的另一个桶
+	private static int alternate (int hash, int bucket, int mask) {
+		int b1 = bucket1( hash, mask );
+		return bucket == b1 ? bucket2( hash, b1, mask ) : b1;
+	}
+
+	private int nextRandom () {
+		int x = random;
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		return random = x;
+	}
+
+	// 两个桶分别取自哈希值的不同部分, 需要每一位都足够随机, SeededHash对其他类型的key使用MurmurHash3中的fmix32进行混合
+	private int hash (Object k) {
+		return SeededHash.hash( k, k0, k1 );
+	}
+
+	private static Object maskNull (Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	private static Object unmaskNull (Object key) {
+		return key == NULL_KEY ? null : key;
+	}
+
+	// 能在负载因子之内存放expectedSize个元素的最小槽位个数, 至少为两个桶
+	private static int capacityFor (int expectedSize) {
+		long needed = Math.max( BUCKET_SIZE * 2, (long) Math.ceil( expectedSize / (double) LOAD_FACTOR ) );
+		if ( needed >= MAXIMUM_CAPACITY )
+			return MAXIMUM_CAPACITY;
+
+		return Integer.highestOneBit( (int) needed - 1 ) << 1;
+	}
+}
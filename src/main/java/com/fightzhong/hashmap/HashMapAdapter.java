@@ -0,0 +1,282 @@
+package com.fightzhong.hashmap;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static com.fightzhong.hashmap.HashMapEngine.KEEP_MAPPING;
+import static com.fightzhong.hashmap.HashMapEngine.NO_MAPPING;
+
+/**
+ * 将HashMapV1 - HashMapV4适配为java.util.Map, 可以直接替换现有代码中的HashMap, 例如:
+ *   Map<String, Integer> map = new HashMapAdapter<>( new HashMapV4<>() );
+ *
+ * 与AbstractMap中的默认实现相比:
+ *   <1> put/remove/containsKey直接交给底层的哈希表, 而不是遍历entrySet
+ *   <2> putIfAbsent、computeIfAbsent、computeIfPresent、compute、merge都基于HashMapEngine.compute实现,
+ *       只查找一次, 而Map接口中的默认实现是先get再put, 需要查找两次
+ *   <3> entrySet、keySet、values三个视图都直接遍历底层的哈希表, 通过视图或者迭代器删除元素时
+ *       会同步删除哈希表中的元素
+ *
+ * 与java.util.HashMap一样允许key和value为null
+ */
+@SuppressWarnings( "unchecked" )
+public class HashMapAdapter<K, V> extends AbstractMap<K, V> {
+	private final HashMapEngine<K, V> engine;
+
+	// 三个视图都没有状态, 第一次使用时创建, 之后一直复用
+	private Set<Map.Entry<K, V>> entrySet;
+	private Set<K> keySet;
+	private Collection<V> values;
+
+	/*----------------------------------构造器--------------------------------------*/
+	public HashMapAdapter (HashMapEngine<K, V> engine) {
+		this.engine = Objects.requireNonNull( engine );
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	@Override
+	public int size () {
+		return engine.size();
+	}
+
+	@Override
+	public boolean isEmpty () {
+		return engine.size() == 0;
+	}
+
+	@Override
+	public boolean containsKey (Object key) {
+		return engine.containsKey( (K) key );
+	}
+
+	@Override
+	public V get (Object key) {
+		return engine.get( (K) key );
+	}
+
+	@Override
+	public V put (K key, V value) {
+		return engine.put( key, value );
+	}
+
+	@Override
+	public V remove (Object key) {
+		return engine.remove( (K) key );
+	}
+
+	@Override
+	public void clear () {
+		engine.clear();
+	}
+
+	/*----------------------------------复合操作--------------------------------------*/
+	@Override
+	public V putIfAbsent (K key, V value) {
+		// compute返回的是操作完成后的值, 而putIfAbsent需要返回原来的值, 所以在回调中记录下来
+		Object[] oldVal = new Object[1];
+		engine.compute( key, (k, old, present) -> {
+			oldVal[0] = old;
+			return old == null ? value : old;
+		} );
+
+		return (V) oldVal[0];
+	}
+
+	@Override
+	public V computeIfAbsent (K key, Function<? super K, ? extends V> mappingFunction) {
+		Objects.requireNonNull( mappingFunction );
+
+		return engine.compute( key, (k, old, present) -> {
+			if ( old != null )
+				return old;
+
+			// 计算结果为null时不做任何修改: 不记录该key, 原本就存在的、值为null的key保持原样(也不视为一次访问)
+			V newVal = mappingFunction.apply( k );
+			return newVal != null ? newVal : KEEP_MAPPING;
+		} );
+	}
+
+	@Override
+	public V computeIfPresent (K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		Objects.requireNonNull( remappingFunction );
+
+		return engine.compute( key, (k, old, present) -> {
+			// key不存在或者对应的值为null时不做任何修改
+			if ( old == null )
+				return KEEP_MAPPING;
+
+			V newVal = remappingFunction.apply( k, old );
+			return newVal == null ? NO_MAPPING : newVal;
+		} );
+	}
+
+	@Override
+	public V compute (K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		Objects.requireNonNull( remappingFunction );
+
+		return engine.compute( key, (k, old, present) -> {
+			V newVal = remappingFunction.apply( k, old );
+			return newVal == null ? NO_MAPPING : newVal;
+		} );
+	}
+
+	@Override
+	public V merge (K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+		Objects.requireNonNull( value );
+		Objects.requireNonNull( remappingFunction );
+
+		return engine.compute( key, (k, old, present) -> {
+			if ( old == null )
+				return value;
+
+			V newVal = remappingFunction.apply( old, value );
+			return newVal == null ? NO_MAPPING : newVal;
+		} );
+	}
+
+	/*----------------------------------视图--------------------------------------*/
+	@Override
+	public Set<Map.Entry<K, V>> entrySet () {
+		Set<Map.Entry<K, V>> es = entrySet;
+		return es == null ? ( entrySet = new EntrySet() ) : es;
+	}
+
+	@Override
+	public Set<K> keySet () {
+		Set<K> ks = keySet;
+		return ks == null ? ( keySet = new KeySet() ) : ks;
+	}
+
+	@Override
+	public Collection<V> values () {
+		Collection<V> vs = values;
+		return vs == null ? ( values = new Values() ) : vs;
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator () {
+			return engine.entryIterator();
+		}
+
+		@Override
+		public int size () {
+			return engine.size();
+		}
+
+		@Override
+		public boolean contains (Object o) {
+			if ( !( o instanceof Map.Entry ) )
+				return false;
+
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			K key = (K) e.getKey();
+			V val = engine.peek( key ); // 只读的判断, 不能像get那样改变LinkedHashMapV4中的访问顺序
+
+			// 值为null时需要区分key不存在以及key对应的值为null这两种情况
+			return val != null ? val.equals( e.getValue() ) : e.getValue() == null && engine.containsKey( key );
+		}
+
+		@Override
+		public boolean remove (Object o) {
+			if ( !contains( o ) )
+				return false;
+
+			engine.remove( (K) ( (Map.Entry<?, ?>) o ).getKey() );
+			return true;
+		}
+
+		@Override
+		public void clear () {
+			engine.clear();
+		}
+	}
+
+	private class KeySet extends AbstractSet<K> {
+		@Override
+		public Iterator<K> iterator () {
+			Iterator<Map.Entry<K, V>> it = engine.entryIterator();
+			return new Iterator<K>() {
+				@Override
+				public boolean hasNext () {
+					return it.hasNext();
+				}
+
+				@Override
+				public K next () {
+					return it.next().getKey();
+				}
+
+				@Override
+				public void remove () {
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int size () {
+			return engine.size();
+		}
+
+		@Override
+		public boolean contains (Object o) {
+			return engine.containsKey( (K) o );
+		}
+
+		@Override
+		public boolean remove (Object o) {
+			if ( !engine.containsKey( (K) o ) )
+				return false;
+
+			engine.remove( (K) o );
+			return true;
+		}
+
+		@Override
+		public void clear () {
+			engine.clear();
+		}
+	}
+
+	private class Values extends AbstractCollection<V> {
+		@Override
+		public Iterator<V> iterator () {
+			Iterator<Map.Entry<K, V>> it = engine.entryIterator();
+			return new Iterator<V>() {
+				@Override
+				public boolean hasNext () {
+					return it.hasNext();
+				}
+
+				@Override
+				public V next () {
+					return it.next().getValue();
+				}
+
+				@Override
+				public void remove () {
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int size () {
+			return engine.size();
+		}
+
+		@Override
+		public void clear () {
+			engine.clear();
+		}
+	}
+}
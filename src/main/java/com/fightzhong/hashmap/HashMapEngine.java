@@ -0,0 +1,65 @@
+package com.fightzhong.hashmap;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * HashMapV1 - HashMapV4对外提供的统一接口, HashMapAdapter通过该接口将它们适配为java.util.Map
+ *
+ * 其中compute方法是所有复合操作(putIfAbsent、computeIfAbsent、merge等)的基础, 只对key所在的桶进行一次
+ * 查找, 然后在找到的节点(或者插入位置)上直接完成修改、插入或者删除, 避免先get再put带来的两次查找
+ */
+public interface HashMapEngine<K, V> {
+	/**
+	 * Remapping返回该对象表示操作完成后不保留该key: key存在则删除, 不存在则不插入
+	 */
+	Object NO_MAPPING = new Object();
+
+	/**
+	 * Remapping返回该对象表示不做任何修改: key存在则保留原来的值(也不视为一次访问), 不存在则不插入
+	 */
+	Object KEEP_MAPPING = new Object();
+
+	int size ();
+
+	boolean containsKey (K key);
+
+	V get (K key);
+
+	/**
+	 * 与get相同, 但不会产生任何副作用(例如LinkedHashMapV4按访问顺序排列时会把被访问的元素移动到链表尾部),
+	 * 用于contains等只读的判断, 没有副作用的实现直接使用get即可
+	 */
+	default V peek (K key) {
+		return get( key );
+	}
+
+	V put (K key, V val);
+
+	V remove (K key);
+
+	void clear ();
+
+	/**
+	 * 查找key对应的节点, 并根据remapping的返回值修改、插入或者删除该节点
+	 *
+	 * @return 操作完成后key对应的值, 操作完成后不存在该key时返回null
+	 */
+	V compute (K key, Remapping<K, V> remapping);
+
+	/**
+	 * 按照桶的顺序遍历所有的元素, 返回的Entry就是哈希表中的节点, 可以通过setValue直接修改,
+	 * 并且支持通过迭代器删除当前元素
+	 */
+	Iterator<Map.Entry<K, V>> entryIterator ();
+
+	@FunctionalInterface
+	interface Remapping<K, V> {
+		/**
+		 * @param oldVal key对应的值, key不存在时为null
+		 * @param present key是否存在, 用于区分key不存在以及key对应的值为null这两种情况
+		 * @return 新的值, 返回NO_MAPPING表示操作完成后不保留该key, 返回KEEP_MAPPING表示不做任何修改
+		 */
+		Object apply (K key, V oldVal, boolean present);
+	}
+}
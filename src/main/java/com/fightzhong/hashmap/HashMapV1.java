@@ -1,9 +1,13 @@
 package com.fightzhong.hashmap;
 
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 
 @SuppressWarnings( "unchecked" )
-public class HashMapV1<K, V> {
+public class HashMapV1<K, V> implements HashMapEngine<K, V> {
 	private static int RED = 1;
 	private static int BLACK = 0;
 	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的数组长度
@@ -12,7 +16,7 @@ public class HashMapV1<K, V> {
 	private Node<K, V>[] table;
 
 	/*----------------------------------Node节点类--------------------------------------*/
-	private static class Node<K, V> {
+	private static class Node<K, V> implements Map.Entry<K, V> {
 		K key;
 		V val;
 		int color = RED;
@@ -25,7 +29,44 @@ public class HashMapV1<K, V> {
 			this.key = key;
 			this.val = val;
 			this.parent = parent;
-			this.hashCode = key.hashCode();
+			this.hashCode = key == null ? 0 : key.hashCode();
+		}
+
+		// 节点本身就是Entry, 遍历的时候不需要为每个元素额外创建对象
+		@Override
+		public K getKey () {
+			return key;
+		}
+
+		@Override
+		public V getValue () {
+			return val;
+		}
+
+		@Override
+		public V setValue (V value) {
+			V oldVal = val;
+			val = value;
+			return oldVal;
+		}
+
+		@Override
+		public boolean equals (Object o) {
+			if ( !( o instanceof Map.Entry ) )
+				return false;
+
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return Objects.equals( key, e.getKey() ) && Objects.equals( val, e.getValue() );
+		}
+
+		@Override
+		public int hashCode () {
+			return Objects.hashCode( key ) ^ Objects.hashCode( val );
+		}
+
+		@Override
+		public String toString () {
+			return key + "=" + val;
 		}
 	}
 
@@ -52,18 +93,44 @@ public class HashMapV1<K, V> {
 			Node<K, V> curNode = root;
 			int cmp = 0;
 
+			K key1 = key;
+			int hashCode1 = key == null ? 0 : key.hashCode();
+			boolean searched = false; // 是否已经在子树中查找过该key
 			while ( curNode != null ) {
-				cmp = compare( curNode.key, key );
-				parent = curNode;
+				K key2 = curNode.key;
+				int hashCode2 = curNode.hashCode;
+
+				if ( hashCode1 > hashCode2 ) {
+					cmp = 1;
+				} else if ( hashCode1 < hashCode2 ) {
+					cmp = -1;
+				} else if ( Objects.equals( key1, key2 ) ) { // 相等则需要将新值替换旧值
+					cmp = 0;
+				} else if ( comparable( key1, key2 ) ) {
+					cmp = ((Comparable) key1).compareTo( key2 );
+				} else {
+					// 不具有可比较性, 去curNode所在的子树递归查找是否存在该元素, 只需要查找一次,
+					// 不存在的话, 之后在更深的层次中再遇到这种情况时也一定不存在, 不用重复查找
+					Node<K, V> target = searched ? null : node( curNode, key );
+					searched = true;
+
+					if ( target == null ) { // 不存在, 才利用tieBreakOrder去判断往哪边添加
+						cmp = tieBreakOrder( key1, key2 );
+					} else { // 存在, 则cmp应该为0, 之后可以替换该值
+						cmp = 0;
+						curNode = target;
+					}
+				}
 
-				if ( cmp > 0 ) {
-					curNode = curNode.left;
-				} else if ( cmp < 0 ){
+				parent = curNode;
+				if ( cmp > 0 ) { // key1 > key2
 					curNode = curNode.right;
+				} else if ( cmp < 0 ) {
+					curNode = curNode.left;
 				} else {
 					V oldVal = curNode.val;
 
-					curNode.key = key;
+					// 不能替换key, 不具备可比较性的key是按内存地址排列的, 换成另一个对象会破坏树的顺序
 					curNode.val = val;
 
 					return oldVal;
@@ -74,9 +141,9 @@ public class HashMapV1<K, V> {
 			// 此时根据比较的结果判断将新的节点插入到父亲节点的左边还是右边
 			Node<K, V> newNode = new Node<>( key, val, parent );
 			if ( cmp > 0 ) {
-				parent.left = newNode;
-			} else {
 				parent.right = newNode;
+			} else {
+				parent.left = newNode;
 			}
 
 			// 维护红黑树的性质
@@ -84,7 +151,7 @@ public class HashMapV1<K, V> {
 		}
 
 		// 维护根节点为黑色的性质
-		table[index( key )].color = BLACK;
+		table[index].color = BLACK;
 
 		size ++;
 		return null;
@@ -95,19 +162,131 @@ public class HashMapV1<K, V> {
 		return node == null ? null : node.val;
 	}
 
-	private Node<K, V> node (K key) {
+	public boolean containsKey (K key) {
+		return node( key ) != null;
+	}
+
+	/*
+		与put一样只计算一次索引、只从根节点往下查找一次红黑树, 查找的过程中记录父亲节点及最后一次比较的结果,
+		找到则直接在该节点上修改或者删除, 找不到则把新节点挂到记录的父亲节点下面
+	 */
+	@Override
+	public V compute (K key, Remapping<K, V> remapping) {
 		int index = index( key );
-		Node<K, V> node = table[index];
+		Node<K, V> parent = null;
+		Node<K, V> curNode = table[index];
+		int cmp = 0;
+
+		K key1 = key;
+		int hashCode1 = key == null ? 0 : key.hashCode();
+		boolean searched = false;
+		while ( curNode != null ) {
+			K key2 = curNode.key;
+			int hashCode2 = curNode.hashCode;
+
+			if ( hashCode1 > hashCode2 ) {
+				cmp = 1;
+			} else if ( hashCode1 < hashCode2 ) {
+				cmp = -1;
+			} else if ( Objects.equals( key1, key2 ) ) {
+				break;
+			} else if ( comparable( key1, key2 ) ) {
+				cmp = ((Comparable) key1).compareTo( key2 );
+			} else {
+				Node<K, V> target = searched ? null : node( curNode, key );
+				searched = true;
 
-		while ( node != null ) {
-			int cmp = compare( key, node.key );
+				if ( target != null ) {
+					curNode = target;
+					break;
+				}
+				cmp = tieBreakOrder( key1, key2 );
+			}
 
-			if ( cmp == 0 )
-				return node;
+			parent = curNode;
+			curNode = cmp > 0 ? curNode.right : curNode.left;
+		}
+
+		// curNode不为空说明找到了该key
+		Node<K, V> node = curNode;
+		Object newVal = remapping.apply( key, node == null ? null : node.val, node != null );
+
+		if ( node != null ) {
+			if ( newVal == KEEP_MAPPING )
+				return node.val;
+			if ( newVal != NO_MAPPING ) {
+				node.val = (V) newVal;
+				return node.val;
+			}
+
+			remove( node );
+			if ( table[index] != null )
+				table[index].color = BLACK;
+
+			return null;
+		}
+
+		if ( newVal == NO_MAPPING || newVal == KEEP_MAPPING )
+			return null;
 
+		Node<K, V> newNode = new Node<>( key, (V) newVal, parent );
+		if ( parent == null ) {
+			table[index] = newNode;
+		} else {
 			if ( cmp > 0 ) {
+				parent.right = newNode;
+			} else {
+				parent.left = newNode;
+			}
+
+			fixAfterInsertion( newNode );
+		}
+		table[index].color = BLACK;
+
+		size ++;
+		return newNode.val;
+	}
+
+	private Node<K, V> node (K key) {
+		Node<K, V> root = table[index( key )];
+		if ( root == null )
+			return null;
+
+		return node( root, key );
+	}
+
+	/*
+		比较的规则:
+		  <1> 先通过hashCode进行比较, 在同一个索引下的所有红黑树节点的哈希值可能是会不一样的, 所以利用
+		      hashCode也能先对两个key进行一下比较
+		  <2> 如果hashCode相等, 则看两个key是否equals, equals则说明找到了
+		  <3> 如果equals不相等, 则此时如果这两个key是同一种类型(getClass的值相等), 并且该类型实现了Comparable
+		      接口, 那么我们就可以直接利用这个该类的compareTo进行比较
+		  <4> 如果上面还不满足, 即两个key不具备可比较性, 插入时是按内存地址决定放在哪一边的, 而另一个equals的
+		      key对象内存地址并不相同, 所以无法确定在哪一边, 两边的子树都需要查找
+	 */
+	private Node<K, V> node (Node<K, V> node, K key) {
+		K key1 = key;
+		int hashCode1 = key == null ? 0 : key.hashCode();
+
+		while ( node != null ) {
+			K key2 = node.key;
+			int hashCode2 = node.hashCode;
+
+			if ( hashCode1 > hashCode2 ) {
 				node = node.right;
+			} else if ( hashCode1 < hashCode2 ) {
+				node = node.left;
+			} else if ( Objects.equals( key1, key2 ) ) {
+				return node;
+			} else if ( comparable( key1, key2 ) ) {
+				node = ((Comparable) key1).compareTo( key2 ) > 0 ? node.right : node.left;
 			} else {
+				// 先递归查找右子树, 找不到再继续循环查找左子树
+				Node<K, V> right = node( node.right, key );
+				if ( right != null )
+					return right;
+
 				node = node.left;
 			}
 		}
@@ -116,16 +295,20 @@ public class HashMapV1<K, V> {
 	}
 
 	// 删除一个元素
-	public void remove (K key) {
+	public V remove (K key) {
 		Node<K, V> node = node( key );
 		if ( node == null ) // 如果被删除的元素不存在, 直接返回即可
-			return;
+			return null;
+
+		V ret = node.val;
 
+		int index = indexFor( node.hashCode );
 		remove( node );
 
-		int index = index( key );
 		if ( table[index] != null )
 			table[index].color = BLACK;
+
+		return ret;
 	}
 
 	// 删除一个节点, node为待删除节点
@@ -133,6 +316,8 @@ public class HashMapV1<K, V> {
 		if ( hasTwoChild( node ) ) {
 			Node<K, V> s = successor(node);
 			node.key = s.key;
+			node.val = s.val;
+			node.hashCode = s.hashCode;
 
 			node = s; // 使得后继节点作为待删除的节点进行删除
 		}
@@ -144,33 +329,30 @@ public class HashMapV1<K, V> {
 			replacement.parent = parent;
 
 			if ( parent != null ) {
-				int cmp = compare( parent.key, node.key );
-
-				if ( cmp > 0 ) {
+				if ( parent.left == node ) {
 					parent.left = replacement;
 				} else {
 					parent.right = replacement;
 				}
 			} else {
-				table[index( node.key )] = replacement;
+				table[indexFor( node.hashCode )] = replacement;
 			}
 
 		} else {
 			if ( parent != null ) {
-				int cmp = compare( parent.key, node.key );
-
-				if ( cmp > 0 ) {
+				if ( parent.left == node ) {
 					parent.left = null;
 				} else {
 					parent.right = null;
 				}
 			} else {
-				table[index( node.key )] = null;
+				table[indexFor( node.hashCode )] = null;
 			}
 		}
 
 		// node一定不为空
 		fixAfterDeletion( node, replacement );
+		size --;
 	}
 
 	/*----------------------------------红黑树相关操作--------------------------------------*/
@@ -295,7 +477,7 @@ public class HashMapV1<K, V> {
 
 		// node.parent的左右指向需要更改为left
 		if ( node.parent == null ){
-			table[index(node.key)] = left;
+			table[indexFor( node.hashCode )] = left;
 		} else {
 			if ( node.parent.left == node ) {
 				node.parent.left = left;
@@ -321,7 +503,7 @@ public class HashMapV1<K, V> {
 
 		// node.parent的左右指向需要更改为node
 		if ( node.parent == null ){
-			table[index(node.key)] = right;
+			table[indexFor( node.hashCode )] = right;
 		} else {
 			if ( node.parent.left == node ) {
 				node.parent.left = right;
@@ -385,6 +567,15 @@ public class HashMapV1<K, V> {
 		}
 	}
 
+	// 获取以node为根节点的子树中最左边的节点, 即最小的节点
+	private Node<K, V> leftmost (Node<K, V> node) {
+		while ( node.left != null ) {
+			node = node.left;
+		}
+
+		return node;
+	}
+
 	private boolean isLeftChild (Node<K, V> node) {
 
 		Node<K, V> parent = node.parent;
@@ -402,42 +593,17 @@ public class HashMapV1<K, V> {
 		return parent.right == node;
 	}
 
-	/**
-	 * 比较的规则:
-	 *   <1> 先通过hashCode进行比较, 在同一个索引下的所有红黑树节点的哈希值可能是会不一样的, 所以利用
-	 *       hashCode也能先对两个key进行一下比较
-	 *   <2> 如果hashCode相等, 那也没办法进行比较了, 此时我们需要先看一下两个key是否equals, 如果equals
-	 *       那么就说明两个key是本身就是相等的, 此时可以直接将新的值覆盖原来的值, 在比较equals的时候, 采
-	 *       用Objects提供的equals方法进行比较,该方法进行了一定的封装(因为两个key相等可以是内存地址相等
-	 *       或者重写后的equals方法进行判断后相等)
-	 *   <3> 如果equals不相等, 则此时如果这两个key是同一种类型(getClass的值相等), 并且该类型实现了Comparable
-	 *       接口, 那么我们就可以直接利用这个该类的compareTo进行比较
-	 *   <4> 如果上面还不满足, 即两个key不具备可比较性, 此时我们采用内存地址进行比较
-	 */
-	private int compare (K key1, K key2) {
-		// 一、用hashCode进行比较
-		int h1 = key1 == null ? 0 : key1.hashCode();
-		int h2 = key2 == null ? 0 : key2.hashCode();
-
-		if ( h1 - h2 != 0 )
-			return h1 - h2;
-
-		// 二、hashCode不能比较出两个的结果, 用equals进行判断是否是同一个对象
-		if ( Objects.equals( key1, key2 ) )
-			return 0;
-
-		// 三、equals不能比较出来, 则判断两个对象是否具备可比较性
-		if ( key1 != null && key2 != null
-		&& key1.getClass() == key2.getClass()
-		&& key1 instanceof Comparable ) {
-			return ((Comparable) key1).compareTo( key2 );
-		}
-
-		// 四、如果不具备可比较性, 则利用内存地址进行比较
-		int address1 = key1 == null ? 0 : System.identityHashCode( key1 );
-		int address2 = key1 == null ? 0 : System.identityHashCode( key2 );
+	// 两个不相等的key是否能用compareTo比较大小, compareTo返回0时也无法区分两者, 只能当作不具备可比较性
+	private static boolean comparable (Object key1, Object key2) {
+		return key1 != null && key2 != null
+			&& key1.getClass() == key2.getClass()
+			&& key1 instanceof Comparable
+			&& ((Comparable) key1).compareTo( key2 ) != 0;
+	}
 
-		return address1 - address2;
+	// 不具备可比较性时利用内存地址决定插入的方向, 只用于插入, 查找时两边都需要查找
+	private static int tieBreakOrder (Object key1, Object key2) {
+		return System.identityHashCode( key1 ) <= System.identityHashCode( key2 ) ? -1 : 1;
 	}
 
 	// 获取key对应在哈希表中的索引
@@ -445,18 +611,94 @@ public class HashMapV1<K, V> {
 		if ( key == null )
 			return 0;
 
-		int hashCode = key.hashCode();
-		/*
-		  由于传入的key中hashCode方法计算得到的哈希值是key自带的
-		  我们对hashCode再进行一次计算, 这样就可以更加好的减少哈希冲突,
-		  在JDK中二次哈希对应的是hash方法, 而index方法没有提供, 在每次需要
-		  计算索引的时候都是直接进行与运算的, 即JDK没有把这一步抽出来
-		 */
+		return indexFor( key.hashCode() );
+	}
+
+	/*
+	  根据哈希值获取在哈希表中的索引, 节点中已经缓存了key的哈希值, 旋转及删除的时候利用
+	  indexFor(node.hashCode)找到红黑树所在的桶, 不用再调用一次key的hashCode方法
+
+	  由于传入的key中hashCode方法计算得到的哈希值是key自带的
+	  我们对hashCode再进行一次计算, 这样就可以更加好的减少哈希冲突,
+	  在JDK中二次哈希对应的是hash方法, 而index方法没有提供, 在每次需要
+	  计算索引的时候都是直接进行与运算的, 即JDK没有把这一步抽出来
+	 */
+	private int indexFor (int hashCode) {
 		hashCode = hashCode ^ ( hashCode >>> 16 );
 		return hashCode & ( table.length - 1 );
 	}
 
+	/*----------------------------------遍历--------------------------------------*/
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator () {
+		return new EntryIterator();
+	}
+
+	// 按照桶的顺序进行遍历, 每个桶从最小的节点开始沿着successor按中序访问
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		Node<K, V> next;
+		Node<K, V> lastReturned;
+		int index; // 下一个需要查找的桶
+
+		EntryIterator () {
+			next = nextBucket();
+		}
+
+		@Override
+		public boolean hasNext () {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next () {
+			Node<K, V> node = next;
+			if ( node == null )
+				throw new NoSuchElementException();
+
+			next = successor( node );
+			if ( next == null )
+				next = nextBucket();
+
+			lastReturned = node;
+			return node;
+		}
+
+		@Override
+		public void remove () {
+			Node<K, V> node = lastReturned;
+			if ( node == null )
+				throw new IllegalStateException();
+			lastReturned = null;
+
+			// 删除度为2的节点时, 后继节点的内容会被复制到该节点中, 所以下一个要访问的元素就在该节点中
+			if ( hasTwoChild( node ) )
+				next = node;
+
+			int i = indexFor( node.hashCode );
+			HashMapV1.this.remove( node );
+			if ( table[i] != null )
+				table[i].color = BLACK;
+		}
+
+		// 从index开始找到下一个不为空的桶, 返回该桶中最小的节点
+		private Node<K, V> nextBucket () {
+			while ( index < table.length ) {
+				Node<K, V> root = table[index ++];
+				if ( root != null )
+					return leftmost( root );
+			}
+
+			return null;
+		}
+	}
+
 	/*----------------------------------简单的方法--------------------------------------*/
+	@Override
+	public void clear () {
+		Arrays.fill( table, null );
+		size = 0;
+	}
+
 	public int size () {
 		return size;
 	}
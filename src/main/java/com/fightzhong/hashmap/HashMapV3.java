@@ -1,9 +1,13 @@
 package com.fightzhong.hashmap;
 
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 
 @SuppressWarnings( "unchecked" )
-public class HashMapV3<K, V> {
+public class HashMapV3<K, V> implements HashMapEngine<K, V> {
 	private static int RED = 1;
 	private static int BLACK = 0;
 	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的数组长度
@@ -12,7 +16,7 @@ public class HashMapV3<K, V> {
 	private Node<K, V>[] table;
 
 	/*----------------------------------Node节点类--------------------------------------*/
-	private static class Node<K, V> {
+	private static class Node<K, V> implements Map.Entry<K, V> {
 		K key;
 		V val;
 		int color = RED;
@@ -27,6 +31,43 @@ public class HashMapV3<K, V> {
 			this.parent = parent;
 			this.hashCode = key == null ? 0 : key.hashCode();
 		}
+
+		// 节点本身就是Entry, 遍历的时候不需要为每个元素额外创建对象
+		@Override
+		public K getKey () {
+			return key;
+		}
+
+		@Override
+		public V getValue () {
+			return val;
+		}
+
+		@Override
+		public V setValue (V value) {
+			V oldVal = val;
+			val = value;
+			return oldVal;
+		}
+
+		@Override
+		public boolean equals (Object o) {
+			if ( !( o instanceof Map.Entry ) )
+				return false;
+
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return Objects.equals( key, e.getKey() ) && Objects.equals( val, e.getValue() );
+		}
+
+		@Override
+		public int hashCode () {
+			return Objects.hashCode( key ) ^ Objects.hashCode( val );
+		}
+
+		@Override
+		public String toString () {
+			return key + "=" + val;
+		}
 	}
 
 	/*----------------------------------构造器--------------------------------------*/
@@ -54,6 +95,7 @@ public class HashMapV3<K, V> {
 
 			K key1 = key;
 			int hashCode1 = key == null ? 0 : key.hashCode();
+			boolean searched = false; // 是否已经在子树中查找过该key
 			while ( curNode != null ) {
 				K key2 = curNode.key;
 				int hashCode2 = curNode.hashCode;
@@ -73,11 +115,13 @@ public class HashMapV3<K, V> {
 								&& ((Comparable) key1).compareTo( key2 ) != 0 ) {
 							cmp = ((Comparable) key1).compareTo( key2 );
 						} else {
-							// 不具有可比较性, 去curNode所在的子树递归查找是否存在该元素
-							Node<K, V> target = node( curNode, key );
+							// 不具有可比较性, 去curNode所在的子树递归查找是否存在该元素, 只需要查找一次,
+							// 不存在的话, 之后在更深的层次中再遇到这种情况时也一定不存在, 不用重复查找
+							Node<K, V> target = searched ? null : node( curNode, key );
+							searched = true;
 
-							if ( target == null ) { // 不存在, 才利用内存地址去判断往哪边添加
-								cmp = System.identityHashCode( key1 ) - System.identityHashCode( key2 );
+							if ( target == null ) { // 不存在, 才利用tieBreakOrder去判断往哪边添加
+								cmp = tieBreakOrder( key1, key2 );
 							} else { // 存在, 则cmp应该为0, 之后可以替换该值
 								cmp = 0;
 								curNode = target;
@@ -115,7 +159,7 @@ public class HashMapV3<K, V> {
 		}
 
 		// 维护根节点为黑色的性质
-		table[index( key )].color = BLACK;
+		table[index].color = BLACK;
 
 		size ++;
 		return null;
@@ -129,10 +173,11 @@ public class HashMapV3<K, V> {
 
 		V ret = node.val;
 
+		int index = indexFor( node.hashCode );
 		remove( node );
 
-		if ( table[index( key )] != null )
-			table[index( key )].color = BLACK;
+		if ( table[index] != null )
+			table[index].color = BLACK;
 
 		return ret;
 	}
@@ -156,28 +201,24 @@ public class HashMapV3<K, V> {
 
 			// 只有当parent不为空的情况下才去判断将replacement放在parent的left还是right
 			if ( parent != null ) {
-				int cmp = compare( parent.key, node.key );
-
-				if ( cmp > 0 ) {
+				if ( parent.left == node ) {
 					parent.left = replacement;
 				} else {
 					parent.right = replacement;
 				}
 			} else { // parent为空, 则replacement成为新的根节点
-				table[index( node.key )] = replacement;
+				table[indexFor( node.hashCode )] = replacement;
 			}
 
 		} else {
 			if ( parent != null ) {
-				int cmp = compare( parent.key, node.key );
-
-				if ( cmp > 0 ) {
+				if ( parent.left == node ) {
 					parent.left = null;
 				} else {
 					parent.right = null;
 				}
 			} else {
-				table[index( node.key )] = null;
+				table[indexFor( node.hashCode )] = null;
 			}
 		}
 
@@ -205,7 +246,7 @@ public class HashMapV3<K, V> {
 					&& ((Comparable) key1).compareTo( key2 ) != 0) {
 					cmp = ((Comparable) key1).compareTo( key2 );
 				} else {
-					cmp = System.identityHashCode( key1 ) - System.identityHashCode( key2 );
+					cmp = tieBreakOrder( key1, key2 );
 				}
 			}
 		}
@@ -218,6 +259,99 @@ public class HashMapV3<K, V> {
 		return node == null ? null : node.val;
 	}
 
+	public boolean containsKey (K key) {
+		return node( key ) != null;
+	}
+
+	/*
+		与put一样只计算一次索引、只从根节点往下查找一次红黑树, 查找的过程中记录父亲节点及最后一次比较的结果,
+		找到则直接在该节点上修改或者删除, 找不到则把新节点挂到记录的父亲节点下面
+	 */
+	@Override
+	public V compute (K key, Remapping<K, V> remapping) {
+		int index = index( key );
+		Node<K, V> parent = null;
+		Node<K, V> curNode = table[index];
+		int cmp = 0;
+
+		K key1 = key;
+		int hashCode1 = key == null ? 0 : key.hashCode();
+		boolean searched = false; // 是否已经在子树中查找过该key
+		while ( curNode != null ) {
+			K key2 = curNode.key;
+			int hashCode2 = curNode.hashCode;
+
+			if ( hashCode1 > hashCode2 ) {
+				cmp = 1;
+			} else if ( hashCode1 < hashCode2 ) {
+				cmp = -1;
+			} else { // hashCode1 == hashCode2
+				if ( Objects.equals( key1, key2 ) ) // 找到了该key
+					break;
+
+				if ( key1 != null && key2 != null
+					&& key1.getClass() == key2.getClass()
+					&& key1 instanceof Comparable
+					&& ((Comparable) key1).compareTo( key2 ) != 0 ) {
+					cmp = ((Comparable) key1).compareTo( key2 );
+				} else {
+					// 与put一样, 不具有可比较性时只在子树中查找一次
+					Node<K, V> target = searched ? null : node( curNode, key );
+					searched = true;
+
+					if ( target != null ) {
+						curNode = target;
+						break;
+					}
+					cmp = tieBreakOrder( key1, key2 );
+				}
+			}
+
+			parent = curNode;
+			curNode = cmp > 0 ? curNode.right : curNode.left;
+		}
+
+		// curNode不为空说明找到了该key
+		Node<K, V> node = curNode;
+		Object newVal = remapping.apply( key, node == null ? null : node.val, node != null );
+
+		if ( node != null ) {
+			if ( newVal == KEEP_MAPPING )
+				return node.val;
+			if ( newVal != NO_MAPPING ) {
+				node.val = (V) newVal;
+				return node.val;
+			}
+
+			remove( node );
+			if ( table[index] != null )
+				table[index].color = BLACK;
+
+			return null;
+		}
+
+		if ( newVal == NO_MAPPING || newVal == KEEP_MAPPING )
+			return null;
+
+		Node<K, V> newNode = new Node<>( key, (V) newVal, parent );
+		if ( parent == null ) {
+			table[index] = newNode;
+		} else {
+			if ( cmp > 0 ) {
+				parent.right = newNode;
+			} else {
+				parent.left = newNode;
+			}
+
+			// 维护红黑树的性质
+			fixAfterInsertion( newNode );
+		}
+		table[index].color = BLACK;
+
+		size ++;
+		return newNode.val;
+	}
+
 	private Node<K, V> node (K key) {
 		int index = index( key );
 		Node<K, V> root = table[index];
@@ -260,11 +394,14 @@ public class HashMapV3<K, V> {
 					&& ((Comparable) key1).compareTo( key2 ) != 0 ) { // 具备可比较性
 					cmp = ((Comparable) key1).compareTo( key2 );
 				} else {
-					// 不具备可比较性, 则去当前节点的左边和右边进行查找
-					Node<K, V> left = node( node.left, key );
+					// 不具备可比较性, 无法确定在哪一边, 先递归查找右子树, 找不到再继续循环查找左子树,
+					// 找到之后就不会再去查找另一边, 并且只有一边需要递归
 					Node<K, V> right = node( node.right, key );
+					if ( right != null )
+						return right;
 
-					return left == null ? right : left;
+					node = node.left;
+					continue;
 				}
 			}
 
@@ -400,7 +537,7 @@ public class HashMapV3<K, V> {
 
 		// node.parent的左右指向需要更改为left
 		if ( node.parent == null ){
-			table[index(node.key)] = left;
+			table[indexFor( node.hashCode )] = left;
 		} else {
 			if ( node.parent.left == node ) {
 				node.parent.left = left;
@@ -426,7 +563,7 @@ public class HashMapV3<K, V> {
 
 		// node.parent的左右指向需要更改为node
 		if ( node.parent == null ){
-			table[index(node.key)] = right;
+			table[indexFor( node.hashCode )] = right;
 		} else {
 			if ( node.parent.left == node ) {
 				node.parent.left = right;
@@ -490,6 +627,15 @@ public class HashMapV3<K, V> {
 		}
 	}
 
+	// 获取以node为根节点的子树中最左边的节点, 即最小的节点
+	private Node<K, V> leftmost (Node<K, V> node) {
+		while ( node.left != null ) {
+			node = node.left;
+		}
+
+		return node;
+	}
+
 	private boolean isLeftChild (Node<K, V> node) {
 
 		Node<K, V> parent = node.parent;
@@ -507,23 +653,117 @@ public class HashMapV3<K, V> {
 		return parent.right == node;
 	}
 
+	/*
+		hashCode相同并且不具备可比较性的两个key, 插入时用于决定新节点放在哪一边的顺序:
+		先比较类名, 类名也相同时再比较内存地址, 并且不会返回0, 保证每一次插入都有确定的方向
+		注意这个顺序只能用于插入, 不能用于查找: 与被查找的key相等的节点中存放的可能是另一个对象,
+		内存地址不同, 甚至类型也可能不同(例如内容相同的ArrayList与LinkedList), 所以查找时仍然需要
+		在两边的子树中查找
+	 */
+	private static int tieBreakOrder (Object key1, Object key2) {
+		int cmp = 0;
+		if ( key1 != null && key2 != null )
+			cmp = key1.getClass().getName().compareTo( key2.getClass().getName() );
+
+		if ( cmp == 0 )
+			cmp = System.identityHashCode( key1 ) <= System.identityHashCode( key2 ) ? -1 : 1;
+
+		return cmp;
+	}
+
 	// 获取key对应在哈希表中的索引
 	public int index (K key) {
 		if ( key == null )
 			return 0;
 
-		int hashCode = key.hashCode();
-		/*
-		  由于传入的key中hashCode方法计算得到的哈希值是key自带的
-		  我们对hashCode再进行一次计算, 这样就可以更加好的减少哈希冲突,
-		  在JDK中二次哈希对应的是hash方法, 而index方法没有提供, 在每次需要
-		  计算索引的时候都是直接进行与运算的, 即JDK没有把这一步抽出来
-		 */
+		return indexFor( key.hashCode() );
+	}
+
+	/*
+	  根据哈希值获取在哈希表中的索引, 节点中已经缓存了key的哈希值, 旋转及删除的时候利用
+	  indexFor(node.hashCode)找到红黑树所在的桶, 不用再调用一次key的hashCode方法
+
+	  由于传入的key中hashCode方法计算得到的哈希值是key自带的
+	  我们对hashCode再进行一次计算, 这样就可以更加好的减少哈希冲突,
+	  在JDK中二次哈希对应的是hash方法, 而index方法没有提供, 在每次需要
+	  计算索引的时候都是直接进行与运算的, 即JDK没有把这一步抽出来
+	 */
+	private int indexFor (int hashCode) {
 		hashCode = hashCode ^ ( hashCode >>> 16 );
 		return hashCode & ( table.length - 1 );
 	}
 
+	/*----------------------------------遍历--------------------------------------*/
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator () {
+		return new EntryIterator();
+	}
+
+	// 按照桶的顺序进行遍历, 每个桶从最小的节点开始沿着successor按中序访问
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		Node<K, V> next;
+		Node<K, V> lastReturned;
+		int index; // 下一个需要查找的桶
+
+		EntryIterator () {
+			next = nextBucket();
+		}
+
+		@Override
+		public boolean hasNext () {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next () {
+			Node<K, V> node = next;
+			if ( node == null )
+				throw new NoSuchElementException();
+
+			next = successor( node );
+			if ( next == null )
+				next = nextBucket();
+
+			lastReturned = node;
+			return node;
+		}
+
+		@Override
+		public void remove () {
+			Node<K, V> node = lastReturned;
+			if ( node == null )
+				throw new IllegalStateException();
+			lastReturned = null;
+
+			// 删除度为2的节点时, 后继节点的内容会被复制到该节点中, 所以下一个要访问的元素就在该节点中
+			if ( hasTwoChild( node ) )
+				next = node;
+
+			int i = indexFor( node.hashCode );
+			HashMapV3.this.remove( node );
+			if ( table[i] != null )
+				table[i].color = BLACK;
+		}
+
+		// 从index开始找到下一个不为空的桶, 返回该桶中最小的节点
+		private Node<K, V> nextBucket () {
+			while ( index < table.length ) {
+				Node<K, V> root = table[index ++];
+				if ( root != null )
+					return leftmost( root );
+			}
+
+			return null;
+		}
+	}
+
 	/*----------------------------------简单的方法--------------------------------------*/
+	@Override
+	public void clear () {
+		Arrays.fill( table, null );
+		size = 0;
+	}
+
 	public int size () {
 		return size;
 	}
@@ -1,34 +1,128 @@
 package com.fightzhong.hashmap;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @SuppressWarnings( "unchecked" )
-public class HashMapV4<K, V> {
+public class HashMapV4<K, V> implements HashMapEngine<K, V> {
 	private static int RED = 1;
 	private static int BLACK = 0;
 	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的数组长度
 	private static float DEFAULT_LOAD_FACTOR = 0.75f; // 负载因子
+	private static int DEFAULT_TREEIFY_THRESHOLD = 8; // 桶中链表长度超过该值时转换为红黑树
+	private static int DEFAULT_UNTREEIFY_THRESHOLD = 6; // 桶中红黑树节点个数不超过该值时退化为链表
+	private static int MAXIMUM_CAPACITY = 1 << 30; // 数组的最大长度, 再大就超过了int能表示的2的幂
+	private static int TRANSFER_STEP = 4; // 渐进式扩容时, 每次操作最多迁移的桶的个数
+	private static int MIN_BULK_LOAD_SIZE = 1 << 14; // 批量加载的元素少于该值时直接逐个put, 并行的开销得不偿失
+	private static int MIN_BULK_LOAD_PART_SIZE = 1 << 12; // 批量加载时每个分区至少分到的元素个数
+	private static int MAX_BULK_LOAD_PARTS = 64; // 批量加载的最大分区数, parallelLoad中的统计数组大小为分区数的平方
 
 	private int size;
+	private int threshold; // 元素个数达到该值时进行扩容, 等于table.length * loadFactor
+	private final float loadFactor;
+	int modCount; // 结构性修改(增加、删除元素以及扩容)的次数, 用于在遍历时检测并发修改
 	private Node<K, V>[] table;
+	private int treeifyThreshold;
+	private int untreeifyThreshold;
+
+	// 是否使用带随机种子的哈希函数, 以及该哈希表的密钥, 参考SeededHash
+	private final boolean seededHash;
+	private final long k0;
+	private final long k1;
+
+	// 渐进式扩容相关的属性, oldTable不为空说明正处于扩容过程中, [0, transferIndex)范围内的桶已经迁移完成
+	private boolean incrementalResize;
+	private Node<K, V>[] oldTable;
+	private int transferIndex;
+
+	// 链表节点的回收池, 被删除的链表节点通过next串在freeList上, 之后put时优先复用, 参考setNodeRecycling
+	private Node<K, V> freeList;
+	private int freeCount;
+	private int maxFreeNodes;
 
 	/*----------------------------------Node节点类--------------------------------------*/
-	private static class Node<K, V> {
+	// 链表节点, 大部分的桶中只有少量的元素, 用单向链表存放即可, 不需要维护颜色及父子关系
+	static class Node<K, V> implements Map.Entry<K, V> {
 		K key;
 		V val;
-		int color = RED;
 		int hashCode;
-		Node<K, V> left;
-		Node<K, V> right;
-		Node<K, V> parent;
+		Node<K, V> next;
 
-		public Node (K key, V val,  Node<K, V> parent) {
+		public Node (int hashCode, K key, V val, Node<K, V> next) {
+			this.hashCode = hashCode;
 			this.key = key;
 			this.val = val;
+			this.next = next;
+		}
+
+		// 节点本身就是Entry, 遍历的时候不需要为每个元素额外创建对象
+		@Override
+		public K getKey () {
+			return key;
+		}
+
+		@Override
+		public V getValue () {
+			return val;
+		}
+
+		@Override
+		public V setValue (V value) {
+			V oldVal = val;
+			val = value;
+			return oldVal;
+		}
+
+		@Override
+		public boolean equals (Object o) {
+			if ( !( o instanceof Map.Entry ) )
+				return false;
+
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return Objects.equals( key, e.getKey() ) && Objects.equals( val, e.getValue() );
+		}
+
+		@Override
+		public int hashCode () {
+			return Objects.hashCode( key ) ^ Objects.hashCode( val );
+		}
+
+		@Override
+		public String toString () {
+			return key + "=" + val;
+		}
+	}
+
+	/*
+		红黑树节点, 只有当桶中的链表长度超过treeifyThreshold时, 该桶中的节点才会被转换为红黑树节点,
+		与JDK一样继承的是LinkedHashMapV4中的节点, 这样LinkedHashMapV4中的红黑树节点同样可以串到
+		双向链表中, 红黑树节点本来就很少, 多出的两个引用可以忽略不计
+	 */
+	static class TreeNode<K, V> extends LinkedHashMapV4.Entry<K, V> {
+		int color = RED;
+		TreeNode<K, V> left;
+		TreeNode<K, V> right;
+		TreeNode<K, V> parent;
+
+		public TreeNode (int hashCode, K key, V val, TreeNode<K, V> parent) {
+			super( hashCode, key, val, null );
 			this.parent = parent;
-			this.hashCode = key == null ? 0 : key.hashCode();
 		}
 	}
 
@@ -38,167 +132,402 @@ public class HashMapV4<K, V> {
 	}
 
 	public HashMapV4 (int initialCapacity) {
-		this.table = new Node[initialCapacity];
+		this( initialCapacity, DEFAULT_LOAD_FACTOR );
+	}
+
+	/**
+	 * @param loadFactor 负载因子, 调小可以用内存换取更短的桶, 调大则相反, 与开放寻址法不同,
+	 *                   拉链法中元素个数可以超过数组长度, 所以允许大于1
+	 */
+	public HashMapV4 (int initialCapacity, float loadFactor) {
+		this( initialCapacity, loadFactor, DEFAULT_TREEIFY_THRESHOLD, DEFAULT_UNTREEIFY_THRESHOLD, false );
+	}
+
+	/**
+	 * @param treeifyThreshold 桶中链表长度超过该值时转换为红黑树
+	 * @param untreeifyThreshold 桶中红黑树节点个数不超过该值时退化为链表, 必须小于treeifyThreshold,
+	 *                           两者之间留有间隔是为了避免在阈值附近反复增删时来回转换
+	 */
+	public HashMapV4 (int initialCapacity, int treeifyThreshold, int untreeifyThreshold) {
+		this( initialCapacity, DEFAULT_LOAD_FACTOR, treeifyThreshold, untreeifyThreshold, false );
+	}
+
+	/**
+	 * @param seededHash 是否使用带随机种子的哈希函数, key由外部用户提供(例如请求参数)时建议开启,
+	 *                   开启后String类型的key会根据内容及该哈希表自己的随机密钥重新计算哈希值,
+	 *                   无法被事先构造出大量的碰撞, 代价是每次操作都需要遍历一遍字符串,
+	 *                   不能再利用String中缓存的hashCode
+	 */
+	public HashMapV4 (int initialCapacity, int treeifyThreshold, int untreeifyThreshold, boolean seededHash) {
+		this( initialCapacity, DEFAULT_LOAD_FACTOR, treeifyThreshold, untreeifyThreshold, seededHash );
+	}
+
+	public HashMapV4 (int initialCapacity, float loadFactor, int treeifyThreshold, int untreeifyThreshold, boolean seededHash) {
+		if ( !( loadFactor > 0 ) || Float.isInfinite( loadFactor ) )
+			throw new IllegalArgumentException( "非法的负载因子: " + loadFactor );
+		if ( treeifyThreshold < 1 || untreeifyThreshold < 0 || untreeifyThreshold >= treeifyThreshold )
+			throw new IllegalArgumentException( "非法的树化阈值: " + treeifyThreshold + ", " + untreeifyThreshold );
+
+		if ( initialCapacity < 0 )
+			throw new IllegalArgumentException( "非法的初始容量: " + initialCapacity );
+
+		// 索引是通过hash & (length - 1)计算的, 数组长度必须是2的幂
+		this.loadFactor = loadFactor;
+		this.table = new Node[tableSizeFor( initialCapacity )];
+		this.threshold = thresholdFor( table.length );
+		this.treeifyThreshold = treeifyThreshold;
+		this.untreeifyThreshold = untreeifyThreshold;
+
+		this.seededHash = seededHash;
+		this.k0 = seededHash ? ThreadLocalRandom.current().nextLong() : 0;
+		this.k1 = seededHash ? ThreadLocalRandom.current().nextLong() : 0;
+	}
+
+	/**
+	 * 根据预计存放的元素个数创建哈希表, 在放入这么多元素之前都不会发生扩容, 适合事先知道数据量的批量加载
+	 */
+	public static <K, V> HashMapV4<K, V> withExpectedSize (int expectedSize) {
+		return withExpectedSize( expectedSize, DEFAULT_LOAD_FACTOR );
+	}
+
+	public static <K, V> HashMapV4<K, V> withExpectedSize (int expectedSize, float loadFactor) {
+		if ( expectedSize < 0 )
+			throw new IllegalArgumentException( "非法的元素个数: " + expectedSize );
+
+		HashMapV4<K, V> map = new HashMapV4<>( 0, loadFactor );
+		map.ensureCapacity( expectedSize );
+		return map;
+	}
+
+	/**
+	 * 用entries中的元素并行构建一个哈希表, 结果与按顺序逐个put相同(相同的key以后出现的为准),
+	 * 适合启动时一次性加载大量数据, 参考parallelLoad
+	 *
+	 * @param parallelism 使用的线程数, 为1时直接逐个put
+	 */
+	public static <K, V> HashMapV4<K, V> bulkLoad (Collection<? extends Map.Entry<? extends K, ? extends V>> entries, int parallelism) {
+		return bulkLoad( (Map.Entry<? extends K, ? extends V>[]) entries.toArray( new Map.Entry<?, ?>[0] ), parallelism );
+	}
+
+	public static <K, V> HashMapV4<K, V> bulkLoad (Map.Entry<? extends K, ? extends V>[] entries, int parallelism) {
+		if ( parallelism < 1 )
+			throw new IllegalArgumentException( "非法的并行度: " + parallelism );
+
+		HashMapV4<K, V> map = withExpectedSize( entries.length );
+		if ( parallelism == 1 || entries.length < MIN_BULK_LOAD_SIZE ) {
+			for ( Map.Entry<? extends K, ? extends V> entry: entries ) {
+				map.put( entry.getKey(), entry.getValue() );
+			}
+
+			return map;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool( parallelism );
+		try {
+			// 分区数取并行度的4倍以平衡各个任务的负载, 但不能超过MAX_BULK_LOAD_PARTS, 每个分区也不能太小
+			int parts = Math.min( Math.min( parallelism * 4, MAX_BULK_LOAD_PARTS ), entries.length / MIN_BULK_LOAD_PART_SIZE );
+			map.parallelLoad( entries, parts, pool );
+		} finally {
+			pool.shutdown();
+		}
+
+		return map;
 	}
 
 	/*----------------------------------核心方法--------------------------------------*/
 	public V put (K key, V val) {
+		// key的哈希值只在这里计算一次, 之后都使用计算好的哈希值
+		return putVal( hash( key ), key, val );
+	}
+
+	private V putVal (int hashCode, K key, V val) {
 		// 在增加之前判断是否需要进行扩容
 		resize();
+		advanceResize( hashCode );
 
-		// 获取key对应的索引及该索引下的红黑树的根节点
-		int index = index(key);
-		Node<K, V> root = table[index];
+		// 获取key对应的索引及该索引下的第一个节点
+		int index = indexFor( hashCode );
+		Node<K, V> first = table[index];
 
-		// 根节点为空的情况
-		if ( root == null ) {
-			table[index] = new Node( key, val, null );
-		} else {
-			Node<K, V> parent = null;
-			Node<K, V> curNode = root;
-			int cmp = 0;
-
-			K key1 = key;
-			int hashCode1 = key == null ? 0 : key.hashCode();
-			while ( curNode != null ) {
-				K key2 = curNode.key;
-				int hashCode2 = curNode.hashCode;
-
-				if ( hashCode1 > hashCode2 ) {
-					cmp = 1;
-				} else if ( hashCode1 < hashCode2 ) {
-					cmp = -1;
-				} else { // hashCode1 == hashCode2
-					if ( Objects.equals( key1, key2 ) ) { // 相等则需要将新值替换旧值
-						cmp = 0;
-					} else { // 不相等
-						// 具有可比较性
-						if ( key1 != null && key2 != null
-								&& key1.getClass() == key2.getClass()
-								&& key1 instanceof Comparable
-								&& ((Comparable) key1).compareTo( key2 ) != 0 ) {
-							cmp = ((Comparable) key1).compareTo( key2 );
-						} else {
-							// 不具有可比较性, 去curNode所在的子树递归查找是否存在该元素
-							Node<K, V> target = node( curNode, key );
-
-							if ( target == null ) { // 不存在, 才利用内存地址去判断往哪边添加
-								cmp = System.identityHashCode( key1 ) - System.identityHashCode( key2 );
-							} else { // 存在, 则cmp应该为0, 之后可以替换该值
-								cmp = 0;
-								curNode = target;
-							}
-						}
-					}
-				}
+		if ( first == null ) { // 桶为空的情况, 直接放入一个链表节点
+			table[index] = newNode( hashCode, key, val, null );
+		} else if ( first instanceof TreeNode ) { // 桶已经转换为红黑树的情况
+			TreeNode<K, V> target = putTreeVal( index, hashCode, key, val );
 
-				parent = curNode;
-				if ( cmp > 0 ) { // key1 > key2
-					curNode = curNode.right;
-				} else if ( cmp < 0 ){
-					curNode = curNode.left;
-				} else {
+			if ( target != null ) { // 已经存在该key, 用新值替换旧值
+				V oldVal = target.val;
+
+				// 注意不能替换key, 红黑树中不具备可比较性的key是按内存地址排列的, 换成另一个对象会破坏树的顺序
+				target.val = val;
+				afterNodeAccess( target );
+
+				return oldVal;
+			}
+		} else { // 桶为链表的情况
+			int binCount = 0;
+			Node<K, V> curNode = first;
+			while ( true ) {
+				if ( curNode.hashCode == hashCode && Objects.equals( curNode.key, key ) ) {
 					V oldVal = curNode.val;
 
-					curNode.key = key;
 					curNode.val = val;
+					afterNodeAccess( curNode );
 
 					return oldVal;
 				}
+
+				binCount ++;
+				if ( curNode.next == null )
+					break;
+				curNode = curNode.next;
 			}
 
-			// 到了这一步, 必定是找到了空的节点, 同时维护了空的节点的父亲节点
-			// 此时根据比较的结果判断将新的节点插入到父亲节点的左边还是右边
-			Node<K, V> newNode = new Node<>( key, val, parent );
-			if ( cmp > 0 ) {
-				parent.right = newNode;
+			// 到了这一步, curNode必定是链表的尾节点, 将新节点追加到尾部
+			curNode.next = newNode( hashCode, key, val, null );
+
+			// 加上新节点后链表长度超过了阈值, 将该桶转换为红黑树
+			if ( binCount + 1 > treeifyThreshold )
+				treeify( index );
+		}
+
+		modCount ++;
+		size ++;
+		afterNodeInsertion();
+		return null;
+	}
+
+	// 在index对应的红黑树中增加一个元素, 如果该key已经存在则返回对应的节点, 否则返回null
+	private TreeNode<K, V> putTreeVal (int index, int hashCode, K key, V val) {
+		TreeNode<K, V> parent = null;
+		TreeNode<K, V> curNode = (TreeNode<K, V>) table[index];
+		int cmp = 0;
+
+		K key1 = key;
+		int hashCode1 = hashCode;
+		boolean searched = false; // 是否已经在子树中查找过该key
+		while ( curNode != null ) {
+			K key2 = curNode.key;
+			int hashCode2 = curNode.hashCode;
+
+			if ( hashCode1 > hashCode2 ) {
+				cmp = 1;
+			} else if ( hashCode1 < hashCode2 ) {
+				cmp = -1;
+			} else { // hashCode1 == hashCode2
+				if ( Objects.equals( key1, key2 ) ) { // 相等则需要将新值替换旧值
+					return curNode;
+				} else { // 不相等
+					// 具有可比较性
+					if ( key1 != null && key2 != null
+							&& key1.getClass() == key2.getClass()
+							&& key1 instanceof Comparable
+							&& ((Comparable) key1).compareTo( key2 ) != 0 ) {
+						cmp = ((Comparable) key1).compareTo( key2 );
+					} else {
+						// 不具有可比较性, 去curNode所在的子树递归查找是否存在该元素, 只需要查找一次,
+						// 不存在的话, 之后在更深的层次中再遇到这种情况时也一定不存在, 不用重复查找
+						TreeNode<K, V> target = searched ? null : node( curNode, hashCode, key );
+						searched = true;
+
+						if ( target == null ) { // 不存在, 才利用tieBreakOrder去判断往哪边添加
+							cmp = tieBreakOrder( key1, key2 );
+						} else { // 存在, 之后可以替换该值
+							return target;
+						}
+					}
+				}
+			}
+
+			parent = curNode;
+			if ( cmp > 0 ) { // key1 > key2
+				curNode = curNode.right;
 			} else {
-				parent.left = newNode;
+				curNode = curNode.left;
 			}
+		}
 
-			// 维护红黑树的性质
-			fixAfterInsertion( newNode );
+		// 到了这一步, 必定是找到了空的节点, 同时维护了空的节点的父亲节点
+		// 此时根据比较的结果判断将新的节点插入到父亲节点的左边还是右边
+		TreeNode<K, V> newNode = newTreeNode( hashCode, key, val, parent );
+		if ( cmp > 0 ) {
+			parent.right = newNode;
+		} else {
+			parent.left = newNode;
 		}
 
-		// 维护根节点为黑色的性质
-		table[index( key )].color = BLACK;
+		// 维护红黑树的性质
+		fixAfterInsertion( newNode );
 
-		size ++;
+		// 维护根节点为黑色的性质
+		((TreeNode<K, V>) table[index]).color = BLACK;
 		return null;
 	}
 
 	// 删除一个元素
 	public V remove (K key) {
-		Node<K, V> node = node(key);
-		if ( node == null ) // 如果被删除的元素不存在, 直接返回即可
+		return removeVal( hash( key ), key );
+	}
+
+	private V removeVal (int hashCode, K key) {
+		advanceResize( hashCode );
+
+		int index = indexFor( hashCode );
+		Node<K, V> first = table[index];
+		if ( first == null ) // 如果被删除的元素不存在, 直接返回即可
 			return null;
 
-		V ret = node.val;
-		remove( node );
+		if ( first instanceof TreeNode ) {
+			TreeNode<K, V> node = node( (TreeNode<K, V>) first, hashCode, key );
+			if ( node == null )
+				return null;
+
+			V ret = node.val;
+			removeTreeNode( index, node );
+
+			return ret;
+		}
+
+		// 链表的情况, 找到被删除的节点并维护其前驱节点
+		Node<K, V> prev = null;
+		Node<K, V> curNode = first;
+		while ( curNode != null ) {
+			if ( curNode.hashCode == hashCode && Objects.equals( curNode.key, key ) ) {
+				if ( prev == null ) {
+					table[index] = curNode.next;
+				} else {
+					prev.next = curNode.next;
+				}
+				afterNodeRemoval( curNode );
+
+				modCount ++;
+				size --;
+
+				V oldVal = curNode.val;
+				recycle( curNode );
+				return oldVal;
+			}
 
-		if ( table[index( key )] != null )
-			table[index( key )].color = BLACK;
+			prev = curNode;
+			curNode = curNode.next;
+		}
 
-		return ret;
+		return null;
 	}
 
 	public int length () {
 		return table.length;
 	}
 
-	private void remove (Node<K, V> node) {
+	// 删除index对应的红黑树中的一个节点, 并维护根节点的颜色, 剩余的节点个数不超过阈值时退化为链表
+	private void removeTreeNode (int index, TreeNode<K, V> node) {
+		remove( node );
+		afterNodeRemoval( node );
 
-		if ( hasTwoChild( node ) ) {
-			Node<K, V> s = successor(node);
-			node.val = s.val;
-			node.hashCode = s.hashCode;
-			node.key = s.key;
+		if ( table[index] != null ) {
+			TreeNode<K, V> root = (TreeNode<K, V>) table[index];
+			root.color = BLACK;
 
-			node = s; // 使得后继节点作为待删除的节点进行删除
+			if ( binCount( root, untreeifyThreshold + 1 ) <= untreeifyThreshold )
+				untreeify( index );
 		}
+	}
+
+	/*
+		删除度为2的节点时, 不像TreeMap那样把后继节点的内容复制过来再删除后继节点, 而是把两个节点在树中的
+		位置(包括颜色)互换, 之后删除的仍然是node本身, 这样每个key始终对应同一个节点对象:
+		  <1> 用户拿到的Entry不会在删除其他元素之后变成另一个key
+		  <2> LinkedHashMapV4中串在双向链表上的节点不会被错位
+	 */
+	private void remove (TreeNode<K, V> node) {
+		if ( hasTwoChild( node ) )
+			swapWithSuccessor( node );
 
-		Node<K, V> replacement = node.left == null ? node.right : node.left;
-		Node<K, V> parent = node.parent;
+		TreeNode<K, V> replacement = node.left == null ? node.right : node.left;
+		TreeNode<K, V> parent = node.parent;
 
 		if ( replacement != null ) {
 			replacement.parent = parent;
 
-			// 只有当parent不为空的情况下才去判断将replacement放在parent的left还是right
+			// 只有当parent不为空的情况下才去判断将replacement放在parent的left还是right,
+			// 直接通过指针判断node在parent的哪一边, 重新比较key可能会与插入时的顺序不一致
 			if ( parent != null ) {
-				int cmp = compare( parent.key, node.key );
-
-				if ( cmp > 0 ) {
+				if ( parent.left == node ) {
 					parent.left = replacement;
 				} else {
 					parent.right = replacement;
 				}
 			} else { // parent为空, 则replacement成为新的根节点
-				table[index( node.key )] = replacement;
+				table[indexFor( node.hashCode )] = replacement;
 			}
 
 		} else {
 			if ( parent != null ) {
-				int cmp = compare( parent.key, node.key );
-
-				if ( cmp > 0 ) {
+				if ( parent.left == node ) {
 					parent.left = null;
 				} else {
 					parent.right = null;
 				}
 			} else {
-				table[index( node.key )] = null;
+				table[indexFor( node.hashCode )] = null;
 			}
 		}
 
 		// node一定不为空
 		fixAfterDeletion( node, replacement );
+		modCount ++;
 		size --;
 	}
 
+	// 交换node与其后继节点s在树中的位置及颜色, 交换后node最多只有一个右孩子
+	private void swapWithSuccessor (TreeNode<K, V> node) {
+		TreeNode<K, V> s = successor( node );
+		int color = s.color;
+		s.color = node.color;
+		node.color = color;
+
+		TreeNode<K, V> parent = node.parent;
+		TreeNode<K, V> left = node.left;
+		TreeNode<K, V> right = node.right;
+		TreeNode<K, V> sRight = s.right; // 后继节点一定没有左孩子
+
+		if ( s == right ) { // 后继节点就是node的右孩子
+			node.parent = s;
+			s.right = node;
+		} else {
+			TreeNode<K, V> sParent = s.parent;
+			node.parent = sParent;
+			if ( sParent.left == s ) {
+				sParent.left = node;
+			} else {
+				sParent.right = node;
+			}
+
+			s.right = right;
+			right.parent = s;
+		}
+
+		node.left = null;
+		node.right = sRight;
+		if ( sRight != null )
+			sRight.parent = node;
+
+		s.left = left;
+		left.parent = s;
+		s.parent = parent;
+		if ( parent == null ) {
+			table[indexFor( s.hashCode )] = s;
+		} else if ( parent.left == node ) {
+			parent.left = s;
+		} else {
+			parent.right = s;
+		}
+	}
+
+	// 与红黑树中节点的比较顺序一致: 先比较hash()计算出的哈希值(开启seededHash时带有随机种子), 而不是key的hashCode
 	public int compare (K key1, K key2) {
 		int cmp = 0;
-		int hashCode1 = key1.hashCode();
-		int hashCode2 = key2.hashCode();
+		int hashCode1 = hash( key1 );
+		int hashCode2 = hash( key2 );
 
 		if ( hashCode1 > hashCode2 ) {
 			cmp = 1;
@@ -214,7 +543,7 @@ public class HashMapV4<K, V> {
 					&& ((Comparable) key1).compareTo( key2 ) != 0) {
 					cmp = ((Comparable) key1).compareTo( key2 );
 				} else {
-					cmp = System.identityHashCode( key1 ) - System.identityHashCode( key2 );
+					cmp = tieBreakOrder( key1, key2 );
 				}
 			}
 		}
@@ -223,30 +552,175 @@ public class HashMapV4<K, V> {
 	}
 
 	public V get (K key) {
-		Node<K, V> node = node(key);
+		if ( oldTable != null )
+			transferStep();
+
+		Node<K, V> node = node( key );
+		if ( node == null )
+			return null;
+
+		afterNodeAccess( node );
+		return node.val;
+	}
+
+	public boolean containsKey (K key) {
+		if ( oldTable != null )
+			transferStep();
+
+		return node( key ) != null;
+	}
+
+	// 不调用afterNodeAccess, 也不迁移桶
+	@Override
+	public V peek (K key) {
+		Node<K, V> node = node( key );
 		return node == null ? null : node.val;
 	}
 
+	/*
+		与put一样只计算一次哈希值、只定位一次桶:
+		  <1> 链表的情况, 一边查找一边维护前驱节点及尾节点, 找到后直接修改或者删除, 找不到则直接追加到尾部
+		  <2> 红黑树的情况, 查找失败后利用linkTreeNode挂上新节点, 与JDK中HashMap.compute在查找失败后调用
+		      putTreeVal一样, 由于已经确定key不存在, 挂节点时只需要比较大小, 不会再进行equals判断
+		remapping中如果修改了哈希表, 之前找到的节点及插入位置都会失效, 所以此时抛出ConcurrentModificationException
+	 */
+	@Override
+	public V compute (K key, Remapping<K, V> remapping) {
+		int hashCode = hash( key );
+
+		resize();
+		advanceResize( hashCode );
+
+		int index = indexFor( hashCode );
+		Node<K, V> first = table[index];
+		int expectedModCount = modCount;
+
+		if ( first instanceof TreeNode ) {
+			TreeNode<K, V> node = node( (TreeNode<K, V>) first, hashCode, key );
+			Object newVal = remapping.apply( key, node == null ? null : node.val, node != null );
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			if ( node != null ) {
+				if ( newVal == KEEP_MAPPING )
+					return node.val;
+				if ( newVal != NO_MAPPING ) {
+					node.val = (V) newVal;
+					afterNodeAccess( node );
+					return node.val;
+				}
+
+				removeTreeNode( index, node );
+				return null;
+			}
+
+			if ( newVal == NO_MAPPING || newVal == KEEP_MAPPING )
+				return null;
+
+			TreeNode<K, V> newNode = newTreeNode( hashCode, key, (V) newVal, null );
+			linkTreeNode( (TreeNode<K, V>) first, newNode );
+			((TreeNode<K, V>) table[index]).color = BLACK;
+
+			modCount ++;
+			size ++;
+			afterNodeInsertion();
+			return newNode.val;
+		}
+
+		// 桶为空或者为链表的情况
+		int binCount = 0;
+		Node<K, V> prev = null;
+		for ( Node<K, V> curNode = first; curNode != null; curNode = curNode.next ) {
+			if ( curNode.hashCode == hashCode && Objects.equals( curNode.key, key ) ) {
+				Object newVal = remapping.apply( key, curNode.val, true );
+				if ( modCount != expectedModCount )
+					throw new ConcurrentModificationException();
+				if ( newVal == KEEP_MAPPING )
+					return curNode.val;
+				if ( newVal != NO_MAPPING ) {
+					curNode.val = (V) newVal;
+					afterNodeAccess( curNode );
+					return curNode.val;
+				}
+
+				if ( prev == null ) {
+					table[index] = curNode.next;
+				} else {
+					prev.next = curNode.next;
+				}
+				afterNodeRemoval( curNode );
+				recycle( curNode );
+
+				modCount ++;
+				size --;
+				return null;
+			}
+
+			binCount ++;
+			prev = curNode;
+		}
+
+		Object newVal = remapping.apply( key, null, false );
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+		if ( newVal == NO_MAPPING || newVal == KEEP_MAPPING )
+			return null;
+
+		// 到了这一步, prev必定是链表的尾节点(或者为空, 即桶为空)
+		Node<K, V> newNode = newNode( hashCode, key, (V) newVal, null );
+		if ( prev == null ) {
+			table[index] = newNode;
+		} else {
+			prev.next = newNode;
+		}
+
+		// 转换为红黑树时newNode会被替换, 所以直接返回计算出的值
+		if ( binCount + 1 > treeifyThreshold )
+			treeify( index );
+
+		modCount ++;
+		size ++;
+		afterNodeInsertion();
+		return (V) newVal;
+	}
+
 	private Node<K, V> node (K key) {
-		int index = index( key );
-		Node<K, V> root = table[index];
+		return node( hash( key ), key );
+	}
+
+	private Node<K, V> node (int hashCode, K key) {
+		// 扩容过程中, key所在的桶如果还没有迁移, 则去旧的哈希表中查找, 否则去新的哈希表中查找
+		Node<K, V> first = null;
+		if ( oldTable != null )
+			first = oldTable[oldIndexFor( hashCode )];
+		if ( first == null )
+			first = table[indexFor( hashCode )];
 
-		if ( root == null )
+		if ( first == null )
 			return null;
 
-		return node( root, key );
+		if ( first instanceof TreeNode )
+			return node( (TreeNode<K, V>) first, hashCode, key );
+
+		// 链表的情况, 从头到尾进行查找
+		for ( Node<K, V> node = first; node != null; node = node.next ) {
+			if ( node.hashCode == hashCode && Objects.equals( node.key, key ) )
+				return node;
+		}
+
+		return null;
 	}
 
-	private Node<K, V> node (Node<K, V> node, K key) {
+	private TreeNode<K, V> node (TreeNode<K, V> node, int hashCode, K key) {
 		/*
 			key1: 需要被查找的key
-			hashCode1: 需要被查找的key对应的哈希值
+			hashCode1: 需要被查找的key对应的哈希值, 由调用方计算好传入
 
 			key2: 当前比较的key
 			hashCode1: 当前比较的key对应的哈希值
 		*/
 		K key1 = key;
-		int hashCode1 = key == null ? 0 : key.hashCode();
+		int hashCode1 = hashCode;
 
 		while ( node != null ) {
 			K key2 = node.key;
@@ -269,11 +743,14 @@ public class HashMapV4<K, V> {
 					&& ((Comparable) key1).compareTo( key2 ) != 0 ) { // 具备可比较性
 					cmp = ((Comparable) key1).compareTo( key2 );
 				} else {
-					// 不具备可比较性, 则去当前节点的左边和右边进行查找
-					Node<K, V> left = node( node.left, key );
-					Node<K, V> right = node( node.right, key );
-
-					return left == null ? right : left;
+					// 不具备可比较性, 无法确定在哪一边, 先递归查找右子树, 找不到再继续循环查找左子树,
+					// 找到之后就不会再去查找另一边, 并且只有一边需要递归
+					TreeNode<K, V> right = node( node.right, hashCode, key );
+					if ( right != null )
+						return right;
+
+					node = node.left;
+					continue;
 				}
 			}
 
@@ -287,115 +764,696 @@ public class HashMapV4<K, V> {
 		return null;
 	}
 
+	/*
+		哈希表的长度一定是2的幂, 扩容后长度翻倍, 索引的计算多用到了一个二进制位(oldCapacity对应的那一位),
+		所以旧哈希表中索引为i的桶里面的元素, 在新的哈希表中只可能出现在i(该位为0, 称为lo)或者
+		i + oldCapacity(该位为1, 称为hi)这两个位置, 因此不用把元素一个个重新put到新的哈希表中,
+		只需要将每个桶拆分成lo和hi两部分, 再整体放到新的哈希表中即可
+
+		开启渐进式扩容后, 这里只会创建新的哈希表, 桶的迁移分摊到之后的每一次put/get/remove操作中,
+		避免某一次put因为迁移整个哈希表而耗时过长
+	 */
 	private void resize () {
-		if ( size / table.length <= DEFAULT_LOAD_FACTOR )
+		// threshold是事先算好的, 这里只需要一次整数比较, 不用在每次put时做除法
+		if ( size < threshold )
 			return;
 
-		Node<K, V>[] oldTable = table;
+		// 上一次渐进式扩容还没有完成, 先把剩余的桶一次性迁移完
+		if ( oldTable != null )
+			finishResize();
+
+		oldTable = table;
 		table = new Node[oldTable.length * 2];
+		threshold = thresholdFor( table.length );
+		transferIndex = 0;
+		modCount ++; // 换了新的哈希表, 正在进行的遍历不能再继续
 
-		// 遍历每一个根节点
-		for ( Node<K, V> node: oldTable ) {
-			if ( node == null )
-				continue;
+		if ( !incrementalResize )
+			finishResize();
+	}
+
+	// 开启或关闭渐进式扩容, 关闭时如果还有没迁移完的桶, 则一次性迁移完成
+	public void setIncrementalResize (boolean incrementalResize) {
+		this.incrementalResize = incrementalResize;
 
-			// 利用层序遍历获取红黑树中的所有元素
-			Queue<Node<K, V>> queue = new LinkedList<>();
-			queue.add( node );
-			while ( !queue.isEmpty() ) {
-				Node<K, V> head = queue.remove();
+		if ( !incrementalResize && oldTable != null )
+			finishResize();
+	}
 
-				if ( head.left != null )
-					queue.add( head.left );
+	/**
+	 * 保证在放入expectedSize个元素之前都不会再发生扩容, 需要扩容时一次性扩容到位,
+	 * 而不是在批量放入的过程中一次次地翻倍
+	 */
+	public void ensureCapacity (int expectedSize) {
+		int capacity = capacityFor( expectedSize );
+		if ( capacity > table.length )
+			rehash( capacity );
+	}
 
-				if ( head.right != null )
-					queue.add( head.right );
+	/**
+	 * 将数组缩小到能容纳当前元素个数的最小长度, remove不会缩小数组,
+	 * 大量删除元素之后可以调用该方法释放多余的空桶
+	 */
+	public void trimToSize () {
+		int capacity = capacityFor( size );
+		if ( capacity < table.length )
+			rehash( capacity );
+	}
 
-				// 将该元素放入新的哈希表中
-				move( head );
+	/*
+		将所有元素一次性迁移到长度为newCapacity的新数组中, 与resize不同, 新数组的长度可以是原来的任意倍数,
+		也可以比原来小(多个旧桶会合并到同一个新桶中), 所以不能按lo/hi拆分, 只能逐个节点重新计算索引:
+		  <1> 链表节点直接挂到新桶的头部, 不需要创建新的节点
+		  <2> 红黑树节点先转换为链表节点, 因为合并后的树无法直接复用
+		全部迁移完成后, 长度超过treeifyThreshold的桶再转换为红黑树
+	 */
+	private void rehash (int newCapacity) {
+		if ( oldTable != null )
+			finishResize();
+
+		Node<K, V>[] tab = table;
+		table = new Node[newCapacity];
+		threshold = thresholdFor( newCapacity );
+		modCount ++;
+
+		for ( Node<K, V> first: tab ) {
+			if ( first instanceof TreeNode ) {
+				for ( TreeNode<K, V> node = leftmost( (TreeNode<K, V>) first ); node != null; node = successor( node ) ) {
+					int index = indexFor( node.hashCode );
+					table[index] = replacementNode( node, table[index] );
+				}
+			} else {
+				Node<K, V> node = first;
+				while ( node != null ) {
+					Node<K, V> next = node.next;
+					int index = indexFor( node.hashCode );
+					node.next = table[index];
+					table[index] = node;
+					node = next;
+				}
 			}
 		}
+
+		for ( int i = 0; i < table.length; i ++ ) {
+			if ( binCount( table[i], treeifyThreshold + 1 ) > treeifyThreshold )
+				treeify( i );
+		}
 	}
 
-	private void move (Node<K, V> node) {
-		// 重置node, 将其当作一个新增的节点
-		node.left = null;
-		node.right = null;
-		node.parent = null;
-		node.color = RED;
-
-		// 执行增加操作
-		// 获取key对应的索引及该索引下的红黑树的根节点
-		int index = index( node.key );
-		Node<K, V> root = table[index];
-
-		// 根节点为空的情况
-		if ( root == null ) {
-			table[index] = node;
+	/*----------------------------------批量操作--------------------------------------*/
+	/*
+		逐个调用get时, 每个key都要依次经过 key对象 -> hashCode -> table中的桶 -> 节点 -> 节点中的key 这一串
+		相互依赖的内存访问, 前一步没有返回就无法开始下一步, CPU能同时等待的缓存未命中很少;
+		批量操作把这一串访问拆成几轮, 每一轮对所有的key做同一步, 同一轮中的访问互不依赖, 多个缓存未命中可以
+		同时进行(group prefetching):
+		  <1> 第一轮计算所有key的哈希值
+		  <2> 第二轮(只有getAll)取出所有key对应的桶中的第一个节点
+		  <3> 最后一轮再逐个在桶中查找, 此时需要的数据大多已经在缓存中
+		所有的key都按照在数组中的顺序处理, 重复的key以及LinkedHashMapV4中的顺序都与逐个调用相同
+	 */
+
+	/**
+	 * 查找keys中每个key对应的值, 放到out中相同下标的位置, 不存在的key对应null
+	 */
+	public void getAll (K[] keys, V[] out) {
+		if ( out.length < keys.length )
+			throw new IllegalArgumentException( "out的长度小于keys的长度: " + out.length + " < " + keys.length );
+
+		int[] hashCodes = hashAll( keys );
+
+		// 扩容过程中同一个key可能在新旧两个哈希表中, 逐个查找即可
+		if ( oldTable != null ) {
+			for ( int i = 0; i < keys.length; i ++ ) {
+				if ( oldTable != null )
+					transferStep();
+
+				out[i] = nodeValue( node( hashCodes[i], keys[i] ) );
+			}
+			return;
+		}
+
+		Node<K, V>[] tab = table;
+		Node<K, V>[] firsts = (Node<K, V>[]) new Node<?, ?>[keys.length];
+		for ( int i = 0; i < keys.length; i ++ ) {
+			firsts[i] = tab[spread( hashCodes[i] ) & ( tab.length - 1 )];
+		}
+
+		for ( int i = 0; i < keys.length; i ++ ) {
+			out[i] = nodeValue( node( firsts[i], hashCodes[i], keys[i] ) );
+		}
+	}
+
+	/**
+	 * 依次放入keys[i] -> vals[i], 在开始之前按照size + keys.length一次性扩容到位, 处理过程中不会再扩容;
+	 * 批量中大部分key已经存在时可能会提前扩容
+	 */
+	public void putAll (K[] keys, V[] vals) {
+		if ( vals.length < keys.length )
+			throw new IllegalArgumentException( "vals的长度小于keys的长度: " + vals.length + " < " + keys.length );
+
+		ensureCapacity( (int) Math.min( Integer.MAX_VALUE, (long) size + keys.length ) );
+
+		int[] hashCodes = hashAll( keys );
+		for ( int i = 0; i < keys.length; i ++ ) {
+			putVal( hashCodes[i], keys[i], vals[i] );
+		}
+	}
+
+	/**
+	 * 删除keys中的所有key, 返回实际删除的元素个数
+	 */
+	public int removeAll (K[] keys) {
+		int[] hashCodes = hashAll( keys );
+		int oldSize = size;
+		for ( int i = 0; i < keys.length; i ++ ) {
+			removeVal( hashCodes[i], keys[i] );
+		}
+
+		return oldSize - size;
+	}
+
+	private int[] hashAll (K[] keys) {
+		int[] hashCodes = new int[keys.length];
+		for ( int i = 0; i < keys.length; i ++ ) {
+			hashCodes[i] = hash( keys[i] );
+		}
+
+		return hashCodes;
+	}
+
+	// 在以first开头的桶中查找
+	private Node<K, V> node (Node<K, V> first, int hashCode, K key) {
+		if ( first instanceof TreeNode )
+			return node( (TreeNode<K, V>) first, hashCode, key );
+
+		for ( Node<K, V> node = first; node != null; node = node.next ) {
+			if ( node.hashCode == hashCode && Objects.equals( node.key, key ) )
+				return node;
+		}
+
+		return null;
+	}
+
+	// 与get一样, 命中时调用afterNodeAccess
+	private V nodeValue (Node<K, V> node) {
+		if ( node == null )
+			return null;
+
+		afterNodeAccess( node );
+		return node.val;
+	}
+
+	/*----------------------------------批量加载--------------------------------------*/
+	/*
+		数组已经一次性扩容到位, 把所有的桶按下标平均分成parts个连续的分区, 每个分区由一个任务负责,
+		分区之间的桶互不相交, 不需要加锁:
+		  <1> 把entries分成parts段, 并行计算每个元素的哈希值及所属的分区, 同时统计每一段中各个分区的元素个数
+		  <2> 根据统计结果计算每一段中每个分区的元素应该放在order中的起始位置, 再并行把元素的下标写到order中,
+		      同一个分区中的元素按照在entries中的顺序排列, 保证相同的key以后出现的为准
+		  <3> 每个任务按顺序把自己分区中的元素放入对应的桶中, 链表过长时与put一样转换为红黑树
+	 */
+	private void parallelLoad (Map.Entry<? extends K, ? extends V>[] entries, int parts, ForkJoinPool pool) {
+		int n = entries.length;
+		int shift = Integer.numberOfTrailingZeros( table.length );
+		int[] hashCodes = new int[n];
+		int[] partOf = new int[n];
+		int[][] counts = new int[parts][parts]; // counts[c][p]: 第c段中属于第p个分区的元素个数
+
+		invokeAll( pool, parts, c -> {
+			int[] count = counts[c];
+			for ( int i = segmentStart( c, n, parts ); i < segmentStart( c + 1, n, parts ); i ++ ) {
+				int hashCode = hash( (K) entries[i].getKey() );
+				int p = (int) ( ( (long) indexFor( hashCode ) * parts ) >>> shift );
+				hashCodes[i] = hashCode;
+				partOf[i] = p;
+				count[p] ++;
+			}
+		} );
+
+		// 按照先分区、再分段的顺序累加, offsets[c][p]为第c段中第p个分区的第一个元素在order中的位置
+		int[][] offsets = new int[parts][parts];
+		int[] partStart = new int[parts + 1];
+		int position = 0;
+		for ( int p = 0; p < parts; p ++ ) {
+			partStart[p] = position;
+			for ( int c = 0; c < parts; c ++ ) {
+				offsets[c][p] = position;
+				position += counts[c][p];
+			}
+		}
+		partStart[parts] = n;
+
+		int[] order = new int[n];
+		invokeAll( pool, parts, c -> {
+			int[] offset = offsets[c];
+			for ( int i = segmentStart( c, n, parts ); i < segmentStart( c + 1, n, parts ); i ++ ) {
+				order[offset[partOf[i]] ++] = i;
+			}
+		} );
+
+		int[] added = new int[parts];
+		invokeAll( pool, parts, p -> {
+			int count = 0;
+			for ( int j = partStart[p]; j < partStart[p + 1]; j ++ ) {
+				int i = order[j];
+				if ( loadEntry( hashCodes[i], (K) entries[i].getKey(), (V) entries[i].getValue() ) )
+					count ++;
+			}
+			added[p] = count;
+		} );
+
+		for ( int count: added ) {
+			size += count;
+		}
+		modCount ++;
+	}
+
+	/*
+		与put的逻辑相同, 但是不检查扩容、不修改size及modCount, 只访问hashCode对应的桶,
+		不同分区的任务可以同时调用, 返回是否增加了新的元素
+	 */
+	private boolean loadEntry (int hashCode, K key, V val) {
+		int index = indexFor( hashCode );
+		Node<K, V> first = table[index];
+
+		if ( first == null ) {
+			table[index] = newNode( hashCode, key, val, null );
+			return true;
+		}
+
+		if ( first instanceof TreeNode ) {
+			TreeNode<K, V> target = putTreeVal( index, hashCode, key, val );
+			if ( target == null )
+				return true;
+
+			target.val = val;
+			return false;
+		}
+
+		int binCount = 0;
+		Node<K, V> curNode = first;
+		while ( true ) {
+			if ( curNode.hashCode == hashCode && Objects.equals( curNode.key, key ) ) {
+				curNode.val = val;
+				return false;
+			}
+
+			binCount ++;
+			if ( curNode.next == null )
+				break;
+			curNode = curNode.next;
+		}
+
+		curNode.next = newNode( hashCode, key, val, null );
+		if ( binCount + 1 > treeifyThreshold )
+			treeify( index );
+
+		return true;
+	}
+
+	// 在pool中并行执行task(0) - task(tasks - 1), 全部完成后返回, 任务中的异常会在这里重新抛出
+	private static void invokeAll (ForkJoinPool pool, int tasks, IntConsumer task) {
+		pool.invoke( ForkJoinTask.adapt( () -> {
+			List<ForkJoinTask<?>> list = new ArrayList<>( tasks );
+			for ( int i = 0; i < tasks; i ++ ) {
+				int id = i;
+				list.add( ForkJoinTask.adapt( () -> task.accept( id ) ) );
+			}
+
+			ForkJoinTask.invokeAll( list );
+		} ) );
+	}
+
+	// 把n个元素平均分成parts段, 第c段的起始下标
+	private static int segmentStart (int c, int n, int parts) {
+		return (int) ( (long) n * c / parts );
+	}
+
+	/*----------------------------------节点回收--------------------------------------*/
+	/**
+	 * 开启链表节点的回收, 被删除的链表节点最多保留maxFreeNodes个, 之后put时优先复用, 不再创建新的节点,
+	 * 适合每秒插入及删除相同数量元素的滑动窗口场景, 可以减少新生代GC的次数, 传入0表示关闭并释放已经回收的节点
+	 *
+	 * 只有对应的元素真正被删除(remove、compute删除、迭代器删除)的节点才会被回收, 链表转换为红黑树时被替换的节点不会被回收,
+	 * 注意开启后节点会被其他key复用, 通过迭代器或者HashMapAdapter.entrySet拿到的Entry在对应的元素被删除之后
+	 * 不能再继续使用, 否则可能读到其他key的内容, 红黑树节点以及LinkedHashMapV4中的节点不会被回收
+	 */
+	public void setNodeRecycling (int maxFreeNodes) {
+		if ( maxFreeNodes < 0 )
+			throw new IllegalArgumentException( "非法的回收池大小: " + maxFreeNodes );
+
+		this.maxFreeNodes = maxFreeNodes;
+		while ( freeCount > maxFreeNodes ) {
+			freeList = freeList.next;
+			freeCount --;
+		}
+	}
+
+	// 优先从回收池中取出一个节点, 回收池为空时才创建新的节点, 没有开启回收时只多了一次判空
+	private Node<K, V> obtainNode (int hashCode, K key, V val, Node<K, V> next) {
+		Node<K, V> node = freeList;
+		if ( node == null )
+			return new Node<>( hashCode, key, val, next );
+
+		freeList = node.next;
+		freeCount --;
+		node.hashCode = hashCode;
+		node.key = key;
+		node.val = val;
+		node.next = next;
+		return node;
+	}
+
+	// 回收一个已经从哈希表中删除的链表节点, 回收前清空key及value, 避免回收池中的节点导致它们无法被GC回收
+	private void recycle (Node<K, V> node) {
+		if ( freeCount >= maxFreeNodes || node instanceof LinkedHashMapV4.Entry )
+			return;
+
+		node.key = null;
+		node.val = null;
+		node.hashCode = 0;
+		node.next = freeList;
+		freeList = node;
+		freeCount ++;
+	}
+
+	/*
+		在put/remove之前调用, 先按顺序迁移一部分桶, 并且保证哈希值对应的桶已经迁移到了新的哈希表中,
+		这样之后的增删操作都只需要针对新的哈希表进行
+	 */
+	private void advanceResize (int hashCode) {
+		if ( oldTable == null )
+			return;
+
+		transfer( oldIndexFor( hashCode ) );
+		transferStep();
+	}
+
+	// 按顺序迁移最多TRANSFER_STEP个桶(空桶也算), 全部迁移完成后丢弃旧的哈希表
+	private void transferStep () {
+		int bound = Math.min( transferIndex + TRANSFER_STEP, oldTable.length );
+		for ( ; transferIndex < bound; transferIndex ++ ) {
+			transfer( transferIndex );
+		}
+
+		if ( transferIndex == oldTable.length )
+			oldTable = null;
+	}
+
+	private void finishResize () {
+		for ( ; transferIndex < oldTable.length; transferIndex ++ ) {
+			transfer( transferIndex );
+		}
+
+		oldTable = null;
+	}
+
+	// 将旧哈希表中索引为index的桶拆分到新的哈希表中, 已经迁移过的桶会被置空, 再次迁移时直接跳过
+	private void transfer (int index) {
+		Node<K, V> first = oldTable[index];
+		if ( first == null )
+			return;
+
+		oldTable[index] = null;
+		if ( first instanceof TreeNode ) {
+			splitTree( (TreeNode<K, V>) first, index, oldTable.length );
 		} else {
-			Node<K, V> parent = null;
-			Node<K, V> curNode = root;
-			int cmp = 0;
-
-			K key1 = node.key;
-			int hashCode1 = node.hashCode;
-			while ( curNode != null ) {
-				K key2 = curNode.key;
-				int hashCode2 = curNode.hashCode;
-
-				if ( hashCode1 > hashCode2 ) {
-					cmp = 1;
-				} else if ( hashCode1 < hashCode2 ) {
-					cmp = -1;
-				} else { // hashCode1 == hashCode2, 不用判断两者是否相等
-					// 具有可比较性
-					if ( key1 != null && key2 != null
-						&& key1.getClass() == key2.getClass()
-						&& key1 instanceof Comparable
-						&& ((Comparable) key1).compareTo( key2 ) != 0 ) {
-						cmp = ((Comparable) key1).compareTo( key2 );
-					} else {
-						cmp = System.identityHashCode( key1 ) - System.identityHashCode( key2 );
-					}
+			splitList( first, index, oldTable.length );
+		}
+	}
+
+	// 拆分链表, 拆分后的两条链表保持原来的相对顺序, 且长度不会超过原链表, 所以不需要转换为红黑树
+	private void splitList (Node<K, V> first, int index, int oldCapacity) {
+		Node<K, V> loHead = null, loTail = null;
+		Node<K, V> hiHead = null, hiTail = null;
+
+		for ( Node<K, V> node = first; node != null; node = node.next ) {
+			if ( ( spread( node.hashCode ) & oldCapacity ) == 0 ) {
+				if ( loTail == null ) {
+					loHead = node;
+				} else {
+					loTail.next = node;
+				}
+				loTail = node;
+			} else {
+				if ( hiTail == null ) {
+					hiHead = node;
+				} else {
+					hiTail.next = node;
+				}
+				hiTail = node;
+			}
+		}
+
+		if ( loTail != null )
+			loTail.next = null;
+		if ( hiTail != null )
+			hiTail.next = null;
+
+		table[index] = loHead;
+		table[index + oldCapacity] = hiHead;
+	}
+
+	/*
+		拆分红黑树: 按中序遍历的顺序访问每个节点, 利用节点的next属性将其串到lo或者hi链表中,
+		由于中序遍历的结果是有序的, 所以拆分得到的两条链表也是有序的, 之后根据有序链表直接构建出
+		一棵平衡的红黑树即可, 整个过程不会发生旋转, 也不需要额外的队列
+	 */
+	private void splitTree (TreeNode<K, V> root, int index, int oldCapacity) {
+		TreeNode<K, V> loHead = null, loTail = null;
+		TreeNode<K, V> hiHead = null, hiTail = null;
+		int loCount = 0, hiCount = 0;
+
+		// successor只会用到left, right, parent属性, 所以在遍历的过程中修改next属性是安全的
+		for ( TreeNode<K, V> node = leftmost( root ); node != null; node = successor( node ) ) {
+			if ( ( spread( node.hashCode ) & oldCapacity ) == 0 ) {
+				if ( loTail == null ) {
+					loHead = node;
+				} else {
+					loTail.next = node;
+				}
+				loTail = node;
+				loCount ++;
+			} else {
+				if ( hiTail == null ) {
+					hiHead = node;
+				} else {
+					hiTail.next = node;
+				}
+				hiTail = node;
+				hiCount ++;
+			}
+		}
+
+		if ( loTail != null )
+			loTail.next = null;
+		if ( hiTail != null )
+			hiTail.next = null;
+
+		table[index] = rebuild( loHead, loCount );
+		table[index + oldCapacity] = rebuild( hiHead, hiCount );
+	}
+
+	// 根据拆分得到的有序链表重新构建一个桶, 节点个数不超过untreeifyThreshold时退化为链表
+	private Node<K, V> rebuild (TreeNode<K, V> head, int count) {
+		if ( count == 0 )
+			return null;
+
+		if ( count <= untreeifyThreshold ) {
+			Node<K, V> listHead = null;
+			Node<K, V> listTail = null;
+
+			for ( TreeNode<K, V> node = head; node != null; node = (TreeNode<K, V>) node.next ) {
+				Node<K, V> listNode = replacementNode( node, null );
+				if ( listTail == null ) {
+					listHead = listNode;
+				} else {
+					listTail.next = listNode;
 				}
+				listTail = listNode;
+			}
+
+			return listHead;
+		}
+
+		TreeNode<K, V> root = buildTree( head, count, 0, redLevel( count ) );
+		root.parent = null;
+
+		// 构建完成后清空next属性, 红黑树节点不使用next, 避免引用已经被删除的节点
+		TreeNode<K, V> node = head;
+		while ( node != null ) {
+			TreeNode<K, V> next = (TreeNode<K, V>) node.next;
+			node.next = null;
+			node = next;
+		}
+
+		return root;
+	}
+
+	/*
+		利用以head开头的count个有序节点构建一棵平衡二叉搜索树, 与TreeMap中buildFromSorted的思路一样:
+		  <1> 取中间的节点作为根节点, 左边的节点构建左子树, 右边的节点构建右子树
+		  <2> 这样构建出来的树除了最底层以外都是满的, 将最底层(level == redLevel)的节点染成红色,
+		      其余节点染成黑色, 即可满足红黑树的性质
+		由于节点是按顺序串起来的, 左子树中最右边的节点的next就是中间的节点
+	 */
+	private TreeNode<K, V> buildTree (TreeNode<K, V> head, int count, int level, int redLevel) {
+		if ( count == 0 )
+			return null;
+
+		int leftCount = ( count - 1 ) / 2;
+		TreeNode<K, V> left = buildTree( head, leftCount, level + 1, redLevel );
+		TreeNode<K, V> middle = left == null ? head : (TreeNode<K, V>) rightmost( left ).next;
+		TreeNode<K, V> right = buildTree( (TreeNode<K, V>) middle.next, count - leftCount - 1, level + 1, redLevel );
+
+		middle.left = left;
+		middle.right = right;
+		if ( left != null )
+			left.parent = middle;
+		if ( right != null )
+			right.parent = middle;
+
+		middle.color = level == redLevel ? RED : BLACK;
+		return middle;
+	}
+
+	// 计算count个节点构建出来的平衡二叉树中, 需要被染成红色的那一层
+	private static int redLevel (int count) {
+		int level = 0;
+		for ( int m = count - 1; m >= 0; m = m / 2 - 1 ) {
+			level ++;
+		}
+
+		return level;
+	}
+
+	/*----------------------------------链表与红黑树之间的转换--------------------------------------*/
+	// 将index对应的桶中的链表转换为红黑树
+	private void treeify (int index) {
+		Node<K, V> node = table[index];
+		table[index] = null;
+
+		while ( node != null ) {
+			TreeNode<K, V> treeNode = replacementTreeNode( node, null );
+
+			if ( table[index] == null ) {
+				table[index] = treeNode;
+			} else {
+				linkTreeNode( (TreeNode<K, V>) table[index], treeNode );
+			}
+
+			// 维护根节点为黑色的性质
+			((TreeNode<K, V>) table[index]).color = BLACK;
+
+			// 被替换的链表节点对应的元素仍然存在, 外部可能还持有它们, 不能回收, 交给GC处理
+			node = node.next;
+		}
+	}
+
+	// 将index对应的桶中的红黑树按照中序遍历的顺序退化为链表
+	private void untreeify (int index) {
+		TreeNode<K, V> node = leftmost( (TreeNode<K, V>) table[index] );
+		Node<K, V> head = null;
+		Node<K, V> tail = null;
 
-				parent = curNode;
-				if ( cmp > 0 ) { // key1 > key2
-					curNode = curNode.right;
-				} else if ( cmp < 0 ){
-					curNode = curNode.left;
+		while ( node != null ) {
+			Node<K, V> listNode = replacementNode( node, null );
+			if ( tail == null ) {
+				head = listNode;
+			} else {
+				tail.next = listNode;
+			}
+
+			tail = listNode;
+			node = successor( node );
+		}
+
+		table[index] = head;
+	}
+
+	/*
+		将一个新的红黑树节点挂到root对应的红黑树中, 与put的逻辑类似, 但是树中的key一定是唯一的,
+		所以不用进行相等判断, 只需要比较大小即可
+	 */
+	private void linkTreeNode (TreeNode<K, V> root, TreeNode<K, V> node) {
+		TreeNode<K, V> parent = null;
+		TreeNode<K, V> curNode = root;
+		int cmp = 0;
+
+		K key1 = node.key;
+		int hashCode1 = node.hashCode;
+		while ( curNode != null ) {
+			K key2 = curNode.key;
+			int hashCode2 = curNode.hashCode;
+
+			if ( hashCode1 > hashCode2 ) {
+				cmp = 1;
+			} else if ( hashCode1 < hashCode2 ) {
+				cmp = -1;
+			} else { // hashCode1 == hashCode2, 不用判断两者是否相等
+				// 具有可比较性
+				if ( key1 != null && key2 != null
+					&& key1.getClass() == key2.getClass()
+					&& key1 instanceof Comparable
+					&& ((Comparable) key1).compareTo( key2 ) != 0 ) {
+					cmp = ((Comparable) key1).compareTo( key2 );
+				} else {
+					cmp = tieBreakOrder( key1, key2 );
 				}
 			}
 
-			// 到了这一步, 必定是找到了空的节点, 同时维护了空的节点的父亲节点
-			// 此时根据比较的结果判断将新的节点插入到父亲节点的左边还是右边
-			node.parent = parent;
-			if ( cmp > 0 ) {
-				parent.right = node;
+			parent = curNode;
+			if ( cmp > 0 ) { // key1 > key2
+				curNode = curNode.right;
 			} else {
-				parent.left = node;
+				curNode = curNode.left;
 			}
+		}
 
-			// 维护红黑树的性质
-			fixAfterInsertion( node );
+		node.parent = parent;
+		if ( cmp > 0 ) {
+			parent.right = node;
+		} else {
+			parent.left = node;
 		}
 
-		// 维护根节点为黑色的性质
-		table[index].color = BLACK;
+		// 维护红黑树的性质
+		fixAfterInsertion( node );
+	}
+
+	// 统计桶中的节点个数, 数到limit个就停止, 避免为了判断阈值而遍历整个桶
+	private int binCount (Node<K, V> first, int limit) {
+		int count = 0;
+
+		if ( first instanceof TreeNode ) {
+			TreeNode<K, V> node = leftmost( (TreeNode<K, V>) first );
+			while ( node != null && count < limit ) {
+				count ++;
+				node = successor( node );
+			}
+		} else {
+			Node<K, V> node = first;
+			while ( node != null && count < limit ) {
+				count ++;
+				node = node.next;
+			}
+		}
+
+		return count;
 	}
 
 	/*----------------------------------红黑树相关操作--------------------------------------*/
 	// 红黑树的插入操作完成后, 需要维持红黑树的性质
-	private void fixAfterInsertion (Node<K, V> node) {
+	private void fixAfterInsertion (TreeNode<K, V> node) {
 		// 如果父亲节点是黑色的, 那么就直接添加就可以了, 不用维持平衡
 		if ( isBlack( node.parent ) ) {
 			return;
 		}
 
 		// 父亲节点是红色的
-		Node<K, V> parent = node.parent; // 父亲节点
-		Node<K, V> grandParent = parent.parent; // 爷爷节点
-		Node<K, V> sibling = isLeftChild( parent ) ? grandParent.right : grandParent.left; // 叔叔节点
+		TreeNode<K, V> parent = node.parent; // 父亲节点
+		TreeNode<K, V> grandParent = parent.parent; // 爷爷节点
+		TreeNode<K, V> sibling = isLeftChild( parent ) ? grandParent.right : grandParent.left; // 叔叔节点
 
 		// 未发生上溢的情况, 即当前节点的叔叔节点是黑色的, 那么就说明没有和爷爷节点一起组成一个B树节点, 所以没有溢出
 		if ( isBlack( sibling ) ) {
@@ -429,7 +1487,7 @@ public class HashMapV4<K, V> {
 		}
 	}
 
-	private void fixAfterDeletion (Node<K, V> node, Node<K, V> replacement) {
+	private void fixAfterDeletion (TreeNode<K, V> node, TreeNode<K, V> replacement) {
 		if ( isRed( node ) )
 			return;
 
@@ -441,9 +1499,9 @@ public class HashMapV4<K, V> {
 		if ( node.parent == null )
 			return;
 
-		Node<K, V> parent = node.parent; // 父节点
+		TreeNode<K, V> parent = node.parent; // 父节点
 		boolean left = parent.left == null || parent.left == node; // version2: 被删除节点的方向, true为在左边
-		Node<K, V> sibling = left ? parent.right : parent.left;  // 被删除节点在删除前的兄弟节点, 应该通过left以及parent来判断
+		TreeNode<K, V> sibling = left ? parent.right : parent.left;  // 被删除节点在删除前的兄弟节点, 应该通过left以及parent来判断
 
 		if ( left ) {
 			if ( isRed( sibling ) ) {
@@ -497,8 +1555,8 @@ public class HashMapV4<K, V> {
 		}
 	}
 
-	private Node<K, V> rightRotate (Node<K, V> node) {
-		Node<K, V> left = node.left;
+	private TreeNode<K, V> rightRotate (TreeNode<K, V> node) {
+		TreeNode<K, V> left = node.left;
 		node.left = left.right;
 		left.right = node;
 
@@ -506,7 +1564,7 @@ public class HashMapV4<K, V> {
 
 		// node.parent的左右指向需要更改为left
 		if ( node.parent == null ){
-			table[index(node.key)] = left;
+			table[indexFor( node.hashCode )] = left;
 		} else {
 			if ( node.parent.left == node ) {
 				node.parent.left = left;
@@ -523,8 +1581,8 @@ public class HashMapV4<K, V> {
 		return left;
 	}
 
-	private Node<K, V> leftRotate (Node<K, V> node) {
-		Node<K, V> right = node.right;
+	private TreeNode<K, V> leftRotate (TreeNode<K, V> node) {
+		TreeNode<K, V> right = node.right;
 		node.right = right.left;
 		right.left = node;
 
@@ -532,7 +1590,7 @@ public class HashMapV4<K, V> {
 
 		// node.parent的左右指向需要更改为node
 		if ( node.parent == null ){
-			table[index(node.key)] = right;
+			table[indexFor( node.hashCode )] = right;
 		} else {
 			if ( node.parent.left == node ) {
 				node.parent.left = right;
@@ -549,43 +1607,43 @@ public class HashMapV4<K, V> {
 		return right;
 	}
 
-	private void flipColor (Node<K, V> node) {
+	private void flipColor (TreeNode<K, V> node) {
 		node.left.color = RED;
 		node.right.color = RED;
 		node.color = BLACK;
 	}
 
 	// 将一个节点的颜色设置为传入的颜色
-	private void color (Node<K, V> node, int color) {
+	private void color (TreeNode<K, V> node, int color) {
 		node.color = color;
 	}
 
-	private boolean isBlack (Node<K, V> node) {
+	private boolean isBlack (TreeNode<K, V> node) {
 		return node == null || node.color == BLACK;
 	}
 
-	private boolean isRed (Node<K, V> node) {
+	private boolean isRed (TreeNode<K, V> node) {
 		return node != null && node.color == RED;
 	}
 
 	// 判断一个节点是否是度为2的节点
-	private boolean hasTwoChild (Node<K, V> node) {
+	private boolean hasTwoChild (TreeNode<K, V> node) {
 		return node.left != null && node.right != null;
 	}
 
 	// 获取一个节点的后继
-	private Node<K, V> successor (Node<K, V> node) {
+	private TreeNode<K, V> successor (TreeNode<K, V> node) {
 
 		if ( node.right != null ) {
-			Node<K, V> p = node.right;
+			TreeNode<K, V> p = node.right;
 			while ( p.left != null ) {
 				p = p.left;
 			}
 
 			return p;
 		} else {
-			Node<K, V> parent = node.parent;
-			Node<K, V> curNode = node;
+			TreeNode<K, V> parent = node.parent;
+			TreeNode<K, V> curNode = node;
 
 			while ( parent != null && parent.left != curNode ) {
 				curNode = parent;
@@ -596,40 +1654,463 @@ public class HashMapV4<K, V> {
 		}
 	}
 
-	private boolean isLeftChild (Node<K, V> node) {
+	// 获取以node为根节点的子树中最左边的节点, 即最小的节点
+	private TreeNode<K, V> leftmost (TreeNode<K, V> node) {
+		while ( node.left != null ) {
+			node = node.left;
+		}
+
+		return node;
+	}
 
-		Node<K, V> parent = node.parent;
+	// 获取以node为根节点的子树中最右边的节点, 即最大的节点
+	private TreeNode<K, V> rightmost (TreeNode<K, V> node) {
+		while ( node.right != null ) {
+			node = node.right;
+		}
+
+		return node;
+	}
+
+	private boolean isLeftChild (TreeNode<K, V> node) {
+
+		TreeNode<K, V> parent = node.parent;
 		if ( parent == null )
 			throw new IllegalStateException( "根节点, 不存在父亲节点" );
 
 		return parent.left == node;
 	}
 
-	private boolean isRightChild (Node<K, V> node) {
-		Node<K, V> parent = node.parent;
+	private boolean isRightChild (TreeNode<K, V> node) {
+		TreeNode<K, V> parent = node.parent;
 		if ( parent == null )
 			throw new IllegalStateException( "根节点, 不存在父亲节点" );
 
 		return parent.right == node;
 	}
 
+	/*
+		hashCode相同并且不具备可比较性的两个key, 插入时用于决定新节点放在哪一边的顺序:
+		先比较类名, 类名也相同时再比较内存地址, 并且不会返回0, 保证每一次插入都有确定的方向
+		注意这个顺序只能用于插入, 不能用于查找: 与被查找的key相等的节点中存放的可能是另一个对象,
+		内存地址不同, 甚至类型也可能不同(例如内容相同的ArrayList与LinkedList), 所以查找时仍然需要
+		在两边的子树中查找
+	 */
+	private static int tieBreakOrder (Object key1, Object key2) {
+		int cmp = 0;
+		if ( key1 != null && key2 != null )
+			cmp = key1.getClass().getName().compareTo( key2.getClass().getName() );
+
+		if ( cmp == 0 )
+			cmp = System.identityHashCode( key1 ) <= System.identityHashCode( key2 ) ? -1 : 1;
+
+		return cmp;
+	}
+
 	// 获取key对应在哈希表中的索引
 	public int index (K key) {
+		return indexFor( hash( key ) );
+	}
+
+	/*
+		计算key的哈希值, 节点中缓存的以及红黑树中比较大小用的都是这个值, 没有开启seededHash时就是key的hashCode,
+		常见的情况下只多了一次分支判断
+	 */
+	private int hash (K key) {
 		if ( key == null )
 			return 0;
 
-		int hashCode = key.hashCode();
-		/*
-		  由于传入的key中hashCode方法计算得到的哈希值是key自带的
-		  我们对hashCode再进行一次计算, 这样就可以更加好的减少哈希冲突,
-		  在JDK中二次哈希对应的是hash方法, 而index方法没有提供, 在每次需要
-		  计算索引的时候都是直接进行与运算的, 即JDK没有把这一步抽出来
-		 */
-		hashCode = hashCode ^ ( hashCode >>> 16 );
-		return hashCode & ( table.length - 1 );
+		return seededHash ? SeededHash.hash( key, k0, k1 ) : key.hashCode();
+	}
+
+	/*
+	  根据哈希值获取在哈希表中的索引, 节点中已经缓存了key的哈希值, 旋转及删除的时候利用
+	  indexFor(node.hashCode)找到红黑树所在的桶, 不用再调用一次key的hashCode方法
+	 */
+	private int indexFor (int hashCode) {
+		return spread( hashCode ) & ( table.length - 1 );
+	}
+
+	// 获取哈希值对应在旧哈希表中的索引, 只在扩容过程中使用
+	private int oldIndexFor (int hashCode) {
+		return spread( hashCode ) & ( oldTable.length - 1 );
+	}
+
+	/*
+	  由于传入的key中hashCode方法计算得到的哈希值是key自带的
+	  我们对hashCode再进行一次计算, 这样就可以更加好的减少哈希冲突,
+	  在JDK中二次哈希对应的是hash方法, 而index方法没有提供, 在每次需要
+	  计算索引的时候都是直接进行与运算的, 即JDK没有把这一步抽出来
+	 */
+	static int spread (int hashCode) {
+		return hashCode ^ ( hashCode >>> 16 );
+	}
+
+	// 大于等于cap的最小的2的幂, 最小为1, 最大为MAXIMUM_CAPACITY
+	private static int tableSizeFor (int cap) {
+		if ( cap <= 1 )
+			return 1;
+
+		return cap >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : Integer.highestOneBit( cap - 1 ) << 1;
+	}
+
+	// 存放expectedSize个元素而不超过负载因子所需要的数组长度
+	private int capacityFor (int expectedSize) {
+		double cap = Math.ceil( expectedSize / (double) loadFactor );
+		return tableSizeFor( cap >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : (int) cap );
+	}
+
+	// 数组长度为capacity时的扩容阈值, 数组已经达到最大长度时不再扩容
+	private int thresholdFor (int capacity) {
+		double threshold = (double) capacity * loadFactor;
+		return capacity >= MAXIMUM_CAPACITY || threshold >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) threshold;
+	}
+
+	/*----------------------------------供LinkedHashMapV4重写的方法--------------------------------------*/
+	/*
+		所有节点都是通过下面四个方法创建的, LinkedHashMapV4重写这些方法, 在创建节点的同时将其串到双向链表中,
+		链表节点与红黑树节点之间相互转换时, 新的节点会接替旧节点在双向链表中的位置
+	 */
+	Node<K, V> newNode (int hashCode, K key, V val, Node<K, V> next) {
+		return obtainNode( hashCode, key, val, next );
+	}
+
+	TreeNode<K, V> newTreeNode (int hashCode, K key, V val, TreeNode<K, V> parent) {
+		return new TreeNode<>( hashCode, key, val, parent );
+	}
+
+	// 将红黑树节点转换为链表节点
+	Node<K, V> replacementNode (Node<K, V> node, Node<K, V> next) {
+		return obtainNode( node.hashCode, node.key, node.val, next );
+	}
+
+	// 将链表节点转换为红黑树节点
+	TreeNode<K, V> replacementTreeNode (Node<K, V> node, TreeNode<K, V> parent) {
+		return new TreeNode<>( node.hashCode, node.key, node.val, parent );
+	}
+
+	// get命中或者修改了已经存在的key的值之后调用
+	void afterNodeAccess (Node<K, V> node) {
+	}
+
+	// 插入了一个新的元素之后调用
+	void afterNodeInsertion () {
+	}
+
+	// 节点从哈希表中删除之后调用
+	void afterNodeRemoval (Node<K, V> node) {
+	}
+
+	/*----------------------------------遍历--------------------------------------*/
+	/*
+		遍历所有的元素, 不会创建任何对象; 与迭代器一样先把正在进行的渐进式扩容完成, 只在一个哈希表上遍历,
+		否则action中的get、put会继续迁移旧哈希表中的桶, 迁移不算结构性修改, 已经访问过的元素会被再次访问
+	 */
+	public void forEach (BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull( action );
+
+		if ( oldTable != null )
+			finishResize();
+
+		int expectedModCount = modCount;
+		forEach( table, action );
+
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+	}
+
+	private void forEach (Node<K, V>[] tab, BiConsumer<? super K, ? super V> action) {
+		for ( Node<K, V> first: tab ) {
+			if ( first instanceof TreeNode ) {
+				for ( TreeNode<K, V> node = leftmost( (TreeNode<K, V>) first ); node != null; node = successor( node ) ) {
+					action.accept( node.key, node.val );
+				}
+			} else {
+				for ( Node<K, V> node = first; node != null; node = node.next ) {
+					action.accept( node.key, node.val );
+				}
+			}
+		}
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator () {
+		return new EntryIterator();
+	}
+
+	/*
+		按照桶的顺序进行遍历, 链表桶沿着next访问, 红黑树桶从最小的节点开始沿着successor按中序访问,
+		两者都不需要额外的栈或者队列, 红黑树中删除节点时节点本身不会被替换(参考remove(TreeNode)),
+		所以迭代器删除元素后只有一种情况需要注意: 删除后红黑树退化为链表, 桶中的节点都被换成了新的
+		链表节点, 如果下一个要访问的元素还在该桶中, 需要在新的链表中重新找到它对应的节点
+		遍历期间如果不是通过迭代器修改了哈希表, 下一次调用next或者remove时会抛出ConcurrentModificationException,
+		与JDK一样这只是尽力而为的检测, 不能用来保证并发修改时的正确性
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		Node<K, V> next;
+		Node<K, V> lastReturned;
+		int index; // 下一个需要查找的桶
+		int expectedModCount;
+
+		EntryIterator () {
+			// 遍历期间只在一个哈希表上进行, 所以先把正在进行的渐进式扩容完成
+			if ( oldTable != null )
+				finishResize();
+
+			expectedModCount = modCount;
+			next = nextBucket();
+		}
+
+		@Override
+		public boolean hasNext () {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next () {
+			Node<K, V> node = next;
+			if ( node == null )
+				throw new NoSuchElementException();
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			if ( node instanceof TreeNode ) {
+				next = successor( (TreeNode<K, V>) node );
+			} else {
+				next = node.next;
+			}
+			if ( next == null )
+				next = nextBucket();
+
+			lastReturned = node;
+			return node;
+		}
+
+		@Override
+		public void remove () {
+			Node<K, V> node = lastReturned;
+			if ( node == null )
+				throw new IllegalStateException();
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+			lastReturned = null;
+
+			int i = indexFor( node.hashCode );
+			if ( node instanceof TreeNode ) {
+				removeTreeNode( i, (TreeNode<K, V>) node );
+
+				if ( next instanceof TreeNode && !( table[i] instanceof TreeNode ) && indexFor( next.hashCode ) == i ) {
+					Node<K, V> p = table[i];
+					while ( p.key != next.key ) {
+						p = p.next;
+					}
+					next = p;
+				}
+			} else {
+				Node<K, V> prev = null;
+				for ( Node<K, V> p = table[i]; p != node; p = p.next ) {
+					prev = p;
+				}
+
+				if ( prev == null ) {
+					table[i] = node.next;
+				} else {
+					prev.next = node.next;
+				}
+				afterNodeRemoval( node );
+				recycle( node );
+				modCount ++;
+				size --;
+			}
+
+			expectedModCount = modCount;
+		}
+
+		// 从index开始找到下一个不为空的桶, 返回该桶中第一个被访问的节点
+		private Node<K, V> nextBucket () {
+			while ( index < table.length ) {
+				Node<K, V> first = table[index ++];
+				if ( first != null )
+					return first instanceof TreeNode ? leftmost( (TreeNode<K, V>) first ) : first;
+			}
+
+			return null;
+		}
+	}
+
+	public Spliterator<Map.Entry<K, V>> spliterator () {
+		// 与迭代器一样, 只在一个哈希表上进行划分及遍历
+		if ( oldTable != null )
+			finishResize();
+
+		return new EntrySpliterator( table, 0, table.length, size, modCount );
+	}
+
+	public Stream<Map.Entry<K, V>> stream () {
+		return StreamSupport.stream( spliterator(), false );
+	}
+
+	public Stream<Map.Entry<K, V>> parallelStream () {
+		return StreamSupport.stream( spliterator(), true );
+	}
+
+	/*
+		可拆分的迭代器, 供并行流使用, 负责的元素由两部分组成:
+		  <1> 还没有开始遍历的桶, 即[index, fence)范围内的桶, 拆分时取中间的索引, 前一半交给新的Spliterator
+		  <2> 某一个红黑树桶中的一部分元素, 用(head, sub)表示, 即head这一个节点加上以sub为根的整棵子树,
+		      head在中序遍历中排在整棵子树的前面, 拆分时前一半为(head, sub.left), 后一半为(sub, sub.right),
+		      两者在中序遍历中正好首尾相接
+		当只剩下一个桶并且是红黑树时, 先将该桶转换为(null, root), 之后就可以按照子树继续拆分, 这样即使大量
+		元素集中在同一个桶中也能分给多个线程处理
+		拆分后两边的元素个数都只是估计值(取一半), 所以只有没有拆分过的Spliterator才报告SIZED, 不报告SUBSIZED
+	 */
+	private class EntrySpliterator implements Spliterator<Map.Entry<K, V>> {
+		final Node<K, V>[] tab;
+		int index;
+		int fence;
+		int est; // 估计的元素个数
+		int expectedModCount;
+		boolean split; // 是否拆分过
+
+		TreeNode<K, V> head;
+		TreeNode<K, V> sub;
+
+		// 遍历当前桶时的位置, 链表桶只需要current, 红黑树桶需要遍历到last为止
+		Node<K, V> current;
+		TreeNode<K, V> last;
+
+		EntrySpliterator (Node<K, V>[] tab, int index, int fence, int est, int expectedModCount) {
+			this.tab = tab;
+			this.index = index;
+			this.fence = fence;
+			this.est = est;
+			this.expectedModCount = expectedModCount;
+		}
+
+		@Override
+		public Spliterator<Map.Entry<K, V>> trySplit () {
+			// 已经开始遍历某一个桶了, 不再进行拆分
+			if ( current != null )
+				return null;
+
+			int lo = index, hi = fence;
+			if ( hi - lo > 1 ) {
+				int mid = ( lo + hi ) >>> 1;
+				index = mid;
+				return newSplit( lo, mid, null, null );
+			}
+
+			if ( hi - lo == 1 && head == null && sub == null && tab[lo] instanceof TreeNode ) {
+				index = hi;
+				sub = (TreeNode<K, V>) tab[lo];
+			}
+
+			if ( index == fence && sub != null && sub.left != null ) {
+				EntrySpliterator prefix = newSplit( 0, 0, head, sub.left );
+				head = sub;
+				sub = sub.right;
+				return prefix;
+			}
+
+			return null;
+		}
+
+		private EntrySpliterator newSplit (int index, int fence, TreeNode<K, V> head, TreeNode<K, V> sub) {
+			split = true;
+			est >>>= 1;
+
+			EntrySpliterator prefix = new EntrySpliterator( tab, index, fence, est, expectedModCount );
+			prefix.split = true;
+			prefix.head = head;
+			prefix.sub = sub;
+			return prefix;
+		}
+
+		@Override
+		public boolean tryAdvance (Consumer<? super Map.Entry<K, V>> action) {
+			Objects.requireNonNull( action );
+
+			Node<K, V> node = nextNode();
+			if ( node == null )
+				return false;
+
+			action.accept( node );
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining (Consumer<? super Map.Entry<K, V>> action) {
+			Objects.requireNonNull( action );
+
+			for ( Node<K, V> node = nextNode(); node != null; node = nextNode() ) {
+				action.accept( node );
+			}
+
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+		}
+
+		// 获取下一个需要访问的节点, 按照当前桶、head、sub、剩余的桶的顺序进行
+		private Node<K, V> nextNode () {
+			while ( true ) {
+				Node<K, V> node = current;
+				if ( node != null ) {
+					if ( node instanceof TreeNode ) {
+						current = node == last ? null : successor( (TreeNode<K, V>) node );
+					} else {
+						current = node.next;
+					}
+
+					return node;
+				}
+
+				if ( head != null ) {
+					node = head;
+					head = null;
+					return node;
+				}
+
+				if ( sub != null ) {
+					current = leftmost( sub );
+					last = rightmost( sub );
+					sub = null;
+				} else if ( index < fence ) {
+					Node<K, V> first = tab[index ++];
+					if ( first instanceof TreeNode ) {
+						sub = (TreeNode<K, V>) first;
+					} else {
+						current = first;
+					}
+				} else {
+					return null;
+				}
+			}
+		}
+
+		@Override
+		public long estimateSize () {
+			return est;
+		}
+
+		@Override
+		public int characteristics () {
+			return split ? DISTINCT : SIZED | DISTINCT;
+		}
 	}
 
 	/*----------------------------------简单的方法--------------------------------------*/
+	@Override
+	public void clear () {
+		Arrays.fill( table, null );
+		oldTable = null;
+		transferIndex = 0;
+		modCount ++;
+		size = 0;
+	}
+
 	public int size () {
 		return size;
 	}
@@ -0,0 +1,237 @@
+package com.fightzhong.hashmap;
+
+/**
+ * key为int类型的HashMap, 与HashMapV4<Integer, V>相比:
+ *   <1> key直接以int的形式存放在数组中, put/get的时候不需要装箱, 也不需要调用hashCode及equals方法
+ *   <2> 采用开放寻址法(线性探测), 不需要为每个元素创建节点对象
+ * 数组长度同样是2的幂, 元素个数超过length * loadFactor时扩容为原来的两倍
+ *
+ * 由于key是基本类型, 无法用null表示空槽位, 所以用0作为空槽位的标记(哨兵), 真正的key为0的元素单独
+ * 用hasZeroKey及zeroVal两个属性存放
+ */
+@SuppressWarnings( "unchecked" )
+public class IntObjectHashMap<V> {
+	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的数组长度
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+	private static float DEFAULT_LOAD_FACTOR = 0.75f; // 负载因子
+	private static int EMPTY = 0; // 空槽位的标记
+
+	private int size;
+	private int threshold; // 元素个数达到该值时进行扩容, 等于keys.length * loadFactor
+	private float loadFactor;
+
+	private int[] keys;
+	private Object[] vals;
+
+	// key为0的元素
+	private boolean hasZeroKey;
+	private V zeroVal;
+
+	/*----------------------------------构造器--------------------------------------*/
+	public IntObjectHashMap () {
+		this( DEFAULT_INITIAL_CAPACITY );
+	}
+
+	public IntObjectHashMap (int initialCapacity) {
+		this( initialCapacity, DEFAULT_LOAD_FACTOR );
+	}
+
+	public IntObjectHashMap (int initialCapacity, float loadFactor) {
+		if ( initialCapacity < 0 )
+			throw new IllegalArgumentException( "非法的初始容量: " + initialCapacity );
+		// 开放寻址法中元素个数不能超过数组长度, 所以负载因子必须小于1
+		if ( !( loadFactor > 0 && loadFactor < 1 ) )
+			throw new IllegalArgumentException( "非法的负载因子: " + loadFactor );
+
+		this.loadFactor = loadFactor;
+		init( tableSizeFor( initialCapacity ) );
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	public V put (int key, V val) {
+		if ( key == EMPTY ) {
+			V oldVal = zeroVal;
+			zeroVal = val;
+			if ( !hasZeroKey ) {
+				hasZeroKey = true;
+				size ++;
+			}
+
+			return oldVal;
+		}
+
+		int mask = keys.length - 1;
+		int index = hash( key ) & mask;
+		while ( keys[index] != EMPTY ) {
+			if ( keys[index] == key ) { // key已经存在, 用新值替换旧值
+				V oldVal = (V) vals[index];
+				vals[index] = val;
+
+				return oldVal;
+			}
+
+			index = ( index + 1 ) & mask;
+		}
+
+		keys[index] = key;
+		vals[index] = val;
+
+		// 先放入再扩容, 这样放入的时候不用重新寻找位置
+		if ( ++ size > threshold )
+			resize();
+
+		return null;
+	}
+
+	public V get (int key) {
+		if ( key == EMPTY )
+			return zeroVal;
+
+		int index = indexOf( key );
+		return index == -1 ? null : (V) vals[index];
+	}
+
+	public boolean containsKey (int key) {
+		if ( key == EMPTY )
+			return hasZeroKey;
+
+		return indexOf( key ) != -1;
+	}
+
+	// 删除一个元素
+	public V remove (int key) {
+		if ( key == EMPTY ) {
+			if ( !hasZeroKey )
+				return null;
+
+			V ret = zeroVal;
+			hasZeroKey = false;
+			zeroVal = null;
+			size --;
+
+			return ret;
+		}
+
+		int index = indexOf( key );
+		if ( index == -1 ) // 如果被删除的元素不存在, 直接返回即可
+			return null;
+
+		V ret = (V) vals[index];
+		shiftKeys( index );
+		size --;
+
+		return ret;
+	}
+
+	// 查找key所在的下标, 不存在则返回-1
+	private int indexOf (int key) {
+		int mask = keys.length - 1;
+		int index = hash( key ) & mask;
+
+		while ( keys[index] != EMPTY ) {
+			if ( keys[index] == key )
+				return index;
+
+			index = ( index + 1 ) & mask;
+		}
+
+		return -1;
+	}
+
+	/*
+		删除index位置上的元素: 线性探测中不能直接将槽位置空, 否则后面探测经过该槽位的元素就找不到了,
+		所以需要往后查找, 把本应该在index或者更前面位置的元素挪到index上, 然后继续处理被挪走的那个槽位,
+		直到遇到空槽位为止, 这样就不需要墓碑标记
+	 */
+	private void shiftKeys (int index) {
+		int mask = keys.length - 1;
+
+		while ( true ) {
+			int last = index;
+			index = ( index + 1 ) & mask;
+
+			int key;
+			while ( true ) {
+				key = keys[index];
+				if ( key == EMPTY ) {
+					keys[last] = EMPTY;
+					vals[last] = null;
+					return;
+				}
+
+				// slot为该元素本应该在的位置, 如果slot不在(last, index]范围内, 说明可以挪到last上
+				int slot = hash( key ) & mask;
+				if ( last <= index ? ( last >= slot || slot > index ) : ( last >= slot && slot > index ) )
+					break;
+
+				index = ( index + 1 ) & mask;
+			}
+
+			keys[last] = key;
+			vals[last] = vals[index];
+		}
+	}
+
+	private void resize () {
+		if ( keys.length == MAXIMUM_CAPACITY )
+			throw new IllegalStateException( "哈希表已经达到最大容量" );
+
+		int[] oldKeys = keys;
+		Object[] oldVals = vals;
+		init( oldKeys.length * 2 );
+
+		// 旧数组中的key都是唯一的, 直接找到空槽位放入即可
+		int mask = keys.length - 1;
+		for ( int i = 0; i < oldKeys.length; i ++ ) {
+			if ( oldKeys[i] == EMPTY )
+				continue;
+
+			int index = hash( oldKeys[i] ) & mask;
+			while ( keys[index] != EMPTY ) {
+				index = ( index + 1 ) & mask;
+			}
+
+			keys[index] = oldKeys[i];
+			vals[index] = oldVals[i];
+		}
+	}
+
+	private void init (int capacity) {
+		keys = new int[capacity];
+		vals = new Object[capacity];
+		threshold = Math.min( (int) ( capacity * loadFactor ), capacity - 1 );
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	/*
+		int本身就是自己的哈希值, 连续的key会落在连续的槽位上, 但是像1024的倍数这种只有高位不同的key
+		会全部冲突, 所以先乘以黄金分割数把高位的差异扩散到低位, 再像HashMapV4一样异或一次高16位
+	 */
+	private static int hash (int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ ( h >>> 16 );
+	}
+
+	// 获取大于等于cap的最小的2的幂, 保证可以利用hash & (length - 1)计算索引
+	private static int tableSizeFor (int cap) {
+		int n = 2;
+		while ( n < cap && n < MAXIMUM_CAPACITY ) {
+			n <<= 1;
+		}
+
+		return n;
+	}
+
+	/*----------------------------------简单的方法--------------------------------------*/
+	public int length () {
+		return keys.length;
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+}
@@ -0,0 +1,268 @@
+package com.fightzhong.hashmap;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+
+/**
+ * 在HashMapV4的基础上用双向链表把所有节点串起来, 对应JDK中的LinkedHashMap:
+ *   <1> 双向链表直接穿在HashMapV4的节点中(before/after), 不需要额外创建链表节点, 遍历时沿着链表进行,
+ *       耗时只与元素个数有关, 与哈希表的长度无关
+ *   <2> accessOrder为false时按照插入顺序排列, 修改已经存在的key不会改变顺序; 为true时按照访问顺序排列,
+ *       get命中以及put/compute修改已经存在的key都会把该节点移动到链表尾部, 只需要O(1)的时间
+ *   <3> 每次插入新的元素之后都会调用removeEldestEntry, 返回true时删除链表头部的元素, 即最早插入或者
+ *       最久没有被访问的元素, 配合accessOrder就是一个LRU缓存:
+ *       new LinkedHashMapV4<K, V>( 16, 0.75f, true ) {
+ *           protected boolean removeEldestEntry (Map.Entry<K, V> eldest) {
+ *               return size() > MAX_ENTRIES;
+ *           }
+ *       };
+ */
+@SuppressWarnings( "unchecked" )
+public class LinkedHashMapV4<K, V> extends HashMapV4<K, V> {
+	// 双向链表的头尾节点, head是最早插入(或者最久没有被访问)的节点, tail是最近插入(或者最近被访问)的节点
+	private Entry<K, V> head;
+	private Entry<K, V> tail;
+
+	private final boolean accessOrder; // true表示按照访问顺序排列, false表示按照插入顺序排列
+
+	/*----------------------------------Entry节点类--------------------------------------*/
+	// 在链表节点的基础上增加了双向链表的前后指针, HashMapV4中的红黑树节点也继承该类
+	static class Entry<K, V> extends Node<K, V> {
+		Entry<K, V> before;
+		Entry<K, V> after;
+
+		Entry (int hashCode, K key, V val, Node<K, V> next) {
+			super( hashCode, key, val, next );
+		}
+	}
+
+	/*----------------------------------构造器--------------------------------------*/
+	public LinkedHashMapV4 () {
+		super();
+		this.accessOrder = false;
+	}
+
+	public LinkedHashMapV4 (int initialCapacity) {
+		super( initialCapacity );
+		this.accessOrder = false;
+	}
+
+	public LinkedHashMapV4 (int initialCapacity, float loadFactor) {
+		super( initialCapacity, loadFactor );
+		this.accessOrder = false;
+	}
+
+	/**
+	 * @param accessOrder true表示按照访问顺序排列, false表示按照插入顺序排列
+	 */
+	public LinkedHashMapV4 (int initialCapacity, float loadFactor, boolean accessOrder) {
+		super( initialCapacity, loadFactor );
+		this.accessOrder = accessOrder;
+	}
+
+	/*----------------------------------淘汰策略--------------------------------------*/
+	/**
+	 * 插入新的元素之后调用, 返回true时会删除eldest, 默认不删除任何元素, 子类可以重写该方法实现容量限制
+	 *
+	 * @param eldest 链表头部的元素, 即最早插入或者最久没有被访问的元素
+	 */
+	protected boolean removeEldestEntry (Map.Entry<K, V> eldest) {
+		return false;
+	}
+
+	/*----------------------------------HashMapV4的回调--------------------------------------*/
+	@Override
+	Node<K, V> newNode (int hashCode, K key, V val, Node<K, V> next) {
+		Entry<K, V> entry = new Entry<>( hashCode, key, val, next );
+		linkLast( entry );
+		return entry;
+	}
+
+	@Override
+	TreeNode<K, V> newTreeNode (int hashCode, K key, V val, TreeNode<K, V> parent) {
+		TreeNode<K, V> entry = new TreeNode<>( hashCode, key, val, parent );
+		linkLast( entry );
+		return entry;
+	}
+
+	@Override
+	Node<K, V> replacementNode (Node<K, V> node, Node<K, V> next) {
+		Entry<K, V> entry = new Entry<>( node.hashCode, node.key, node.val, next );
+		transferLinks( (Entry<K, V>) node, entry );
+		return entry;
+	}
+
+	@Override
+	TreeNode<K, V> replacementTreeNode (Node<K, V> node, TreeNode<K, V> parent) {
+		TreeNode<K, V> entry = new TreeNode<>( node.hashCode, node.key, node.val, parent );
+		transferLinks( (Entry<K, V>) node, entry );
+		return entry;
+	}
+
+	// 按照访问顺序排列时, 将被访问的节点移动到链表尾部, 与JDK一样这也算一次结构性修改
+	@Override
+	void afterNodeAccess (Node<K, V> node) {
+		if ( !accessOrder || node == tail )
+			return;
+
+		Entry<K, V> entry = (Entry<K, V>) node;
+		unlink( entry );
+		linkLast( entry );
+		modCount ++;
+	}
+
+	@Override
+	void afterNodeInsertion () {
+		Entry<K, V> eldest = head;
+		if ( eldest != null && removeEldestEntry( eldest ) )
+			remove( eldest.key );
+	}
+
+	@Override
+	void afterNodeRemoval (Node<K, V> node) {
+		Entry<K, V> entry = (Entry<K, V>) node;
+		unlink( entry );
+		entry.before = null;
+		entry.after = null;
+	}
+
+	@Override
+	public void clear () {
+		super.clear();
+		head = null;
+		tail = null;
+	}
+
+	/*----------------------------------双向链表相关操作--------------------------------------*/
+	private void linkLast (Entry<K, V> entry) {
+		Entry<K, V> last = tail;
+		entry.before = last;
+		entry.after = null;
+		tail = entry;
+
+		if ( last == null ) {
+			head = entry;
+		} else {
+			last.after = entry;
+		}
+	}
+
+	private void unlink (Entry<K, V> entry) {
+		Entry<K, V> before = entry.before;
+		Entry<K, V> after = entry.after;
+
+		if ( before == null ) {
+			head = after;
+		} else {
+			before.after = after;
+		}
+
+		if ( after == null ) {
+			tail = before;
+		} else {
+			after.before = before;
+		}
+	}
+
+	/*
+		dst接替src在双向链表中的位置, 用于链表节点与红黑树节点之间的转换
+		src自身的before/after保持不变, 迭代器可以通过它们找到接替者, 参考LinkedEntryIterator.remove
+	 */
+	private void transferLinks (Entry<K, V> src, Entry<K, V> dst) {
+		Entry<K, V> before = dst.before = src.before;
+		Entry<K, V> after = dst.after = src.after;
+
+		if ( before == null ) {
+			head = dst;
+		} else {
+			before.after = dst;
+		}
+
+		if ( after == null ) {
+			tail = dst;
+		} else {
+			after.before = dst;
+		}
+	}
+
+	/*----------------------------------遍历--------------------------------------*/
+	// 沿着双向链表遍历, 顺序就是插入(或者访问)的顺序
+	@Override
+	public void forEach (BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull( action );
+
+		int expectedModCount = modCount;
+		for ( Entry<K, V> entry = head; entry != null; entry = entry.after ) {
+			action.accept( entry.key, entry.val );
+		}
+
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator () {
+		return new LinkedEntryIterator();
+	}
+
+	// 双向链表无法像哈希表那样按照桶的范围进行划分, 只能顺序遍历, 由Spliterators根据迭代器分批划分
+	@Override
+	public Spliterator<Map.Entry<K, V>> spliterator () {
+		return Spliterators.spliterator( new LinkedEntryIterator(), size(),
+				Spliterator.SIZED | Spliterator.ORDERED | Spliterator.DISTINCT );
+	}
+
+	private class LinkedEntryIterator implements Iterator<Map.Entry<K, V>> {
+		Entry<K, V> next = head;
+		Entry<K, V> lastReturned;
+		int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext () {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next () {
+			Entry<K, V> entry = next;
+			if ( entry == null )
+				throw new NoSuchElementException();
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			next = entry.after;
+			lastReturned = entry;
+			return entry;
+		}
+
+		/*
+			删除元素后, 所在的红黑树可能会退化为链表, 桶中的节点都会被换成新的节点, 如果next也在该桶中,
+			那么它已经不在双向链表中了, 此时通过它的前驱节点(或者head)找到接替它的节点
+		 */
+		@Override
+		public void remove () {
+			Entry<K, V> entry = lastReturned;
+			if ( entry == null )
+				throw new IllegalStateException();
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+			lastReturned = null;
+
+			LinkedHashMapV4.this.remove( entry.key );
+
+			if ( next != null ) {
+				Entry<K, V> current = next.before == null ? head : next.before.after;
+				if ( current != next )
+					next = current;
+			}
+
+			expectedModCount = modCount;
+		}
+	}
+}
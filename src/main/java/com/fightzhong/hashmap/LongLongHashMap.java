@@ -0,0 +1,235 @@
+package com.fightzhong.hashmap;
+
+/**
+ * key和value都是long类型的HashMap, 与HashMapV4<Long, Long>相比, key和value都直接以long的形式存放在
+ * 数组中, 整个哈希表只有两个long数组, 不会为每个元素创建节点对象以及Long包装对象
+ *
+ * 实现方式与IntObjectHashMap相同: 开放寻址法(线性探测), 0作为空槽位的标记, key为0的元素单独存放
+ *
+ * 由于value是基本类型, 无法用null表示"不存在", 所以get/put/remove在key不存在时返回0,
+ * 需要区分的时候可以使用containsKey或者getOrDefault
+ */
+public class LongLongHashMap {
+	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的数组长度
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+	private static float DEFAULT_LOAD_FACTOR = 0.75f; // 负载因子
+	private static long EMPTY = 0; // 空槽位的标记
+	private static long NO_VALUE = 0; // key不存在时返回的值
+
+	private int size;
+	private int threshold; // 元素个数达到该值时进行扩容, 等于keys.length * loadFactor
+	private float loadFactor;
+
+	private long[] keys;
+	private long[] vals;
+
+	// key为0的元素
+	private boolean hasZeroKey;
+	private long zeroVal;
+
+	/*----------------------------------构造器--------------------------------------*/
+	public LongLongHashMap () {
+		this( DEFAULT_INITIAL_CAPACITY );
+	}
+
+	public LongLongHashMap (int initialCapacity) {
+		this( initialCapacity, DEFAULT_LOAD_FACTOR );
+	}
+
+	public LongLongHashMap (int initialCapacity, float loadFactor) {
+		if ( initialCapacity < 0 )
+			throw new IllegalArgumentException( "非法的初始容量: " + initialCapacity );
+		// 开放寻址法中元素个数不能超过数组长度, 所以负载因子必须小于1
+		if ( !( loadFactor > 0 && loadFactor < 1 ) )
+			throw new IllegalArgumentException( "非法的负载因子: " + loadFactor );
+
+		this.loadFactor = loadFactor;
+		init( tableSizeFor( initialCapacity ) );
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	public long put (long key, long val) {
+		if ( key == EMPTY ) {
+			long oldVal = hasZeroKey ? zeroVal : NO_VALUE;
+			zeroVal = val;
+			if ( !hasZeroKey ) {
+				hasZeroKey = true;
+				size ++;
+			}
+
+			return oldVal;
+		}
+
+		int mask = keys.length - 1;
+		int index = hash( key ) & mask;
+		while ( keys[index] != EMPTY ) {
+			if ( keys[index] == key ) { // key已经存在, 用新值替换旧值
+				long oldVal = vals[index];
+				vals[index] = val;
+
+				return oldVal;
+			}
+
+			index = ( index + 1 ) & mask;
+		}
+
+		keys[index] = key;
+		vals[index] = val;
+
+		// 先放入再扩容, 这样放入的时候不用重新寻找位置
+		if ( ++ size > threshold )
+			resize();
+
+		return NO_VALUE;
+	}
+
+	public long get (long key) {
+		return getOrDefault( key, NO_VALUE );
+	}
+
+	public long getOrDefault (long key, long defaultValue) {
+		if ( key == EMPTY )
+			return hasZeroKey ? zeroVal : defaultValue;
+
+		int index = indexOf( key );
+		return index == -1 ? defaultValue : vals[index];
+	}
+
+	public boolean containsKey (long key) {
+		if ( key == EMPTY )
+			return hasZeroKey;
+
+		return indexOf( key ) != -1;
+	}
+
+	// 删除一个元素
+	public long remove (long key) {
+		if ( key == EMPTY ) {
+			if ( !hasZeroKey )
+				return NO_VALUE;
+
+			long ret = zeroVal;
+			hasZeroKey = false;
+			zeroVal = NO_VALUE;
+			size --;
+
+			return ret;
+		}
+
+		int index = indexOf( key );
+		if ( index == -1 ) // 如果被删除的元素不存在, 直接返回即可
+			return NO_VALUE;
+
+		long ret = vals[index];
+		shiftKeys( index );
+		size --;
+
+		return ret;
+	}
+
+	// 查找key所在的下标, 不存在则返回-1
+	private int indexOf (long key) {
+		int mask = keys.length - 1;
+		int index = hash( key ) & mask;
+
+		while ( keys[index] != EMPTY ) {
+			if ( keys[index] == key )
+				return index;
+
+			index = ( index + 1 ) & mask;
+		}
+
+		return -1;
+	}
+
+	// 删除index位置上的元素, 把后面本应该在index或者更前面位置的元素往前挪, 与IntObjectHashMap相同
+	private void shiftKeys (int index) {
+		int mask = keys.length - 1;
+
+		while ( true ) {
+			int last = index;
+			index = ( index + 1 ) & mask;
+
+			long key;
+			while ( true ) {
+				key = keys[index];
+				if ( key == EMPTY ) {
+					keys[last] = EMPTY;
+					vals[last] = NO_VALUE;
+					return;
+				}
+
+				// slot为该元素本应该在的位置, 如果slot不在(last, index]范围内, 说明可以挪到last上
+				int slot = hash( key ) & mask;
+				if ( last <= index ? ( last >= slot || slot > index ) : ( last >= slot && slot > index ) )
+					break;
+
+				index = ( index + 1 ) & mask;
+			}
+
+			keys[last] = key;
+			vals[last] = vals[index];
+		}
+	}
+
+	private void resize () {
+		if ( keys.length == MAXIMUM_CAPACITY )
+			throw new IllegalStateException( "哈希表已经达到最大容量" );
+
+		long[] oldKeys = keys;
+		long[] oldVals = vals;
+		init( oldKeys.length * 2 );
+
+		// 旧数组中的key都是唯一的, 直接找到空槽位放入即可
+		int mask = keys.length - 1;
+		for ( int i = 0; i < oldKeys.length; i ++ ) {
+			if ( oldKeys[i] == EMPTY )
+				continue;
+
+			int index = hash( oldKeys[i] ) & mask;
+			while ( keys[index] != EMPTY ) {
+				index = ( index + 1 ) & mask;
+			}
+
+			keys[index] = oldKeys[i];
+			vals[index] = oldVals[i];
+		}
+	}
+
+	private void init (int capacity) {
+		keys = new long[capacity];
+		vals = new long[capacity];
+		threshold = Math.min( (int) ( capacity * loadFactor ), capacity - 1 );
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	// 乘以64位的黄金分割数把高位的差异扩散到低位, 再把高32位和低32位混合得到int类型的哈希值
+	private static int hash (long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		return (int) ( h ^ ( h >>> 16 ) );
+	}
+
+	// 获取大于等于cap的最小的2的幂, 保证可以利用hash & (length - 1)计算索引
+	private static int tableSizeFor (int cap) {
+		int n = 2;
+		while ( n < cap && n < MAXIMUM_CAPACITY ) {
+			n <<= 1;
+		}
+
+		return n;
+	}
+
+	/*----------------------------------简单的方法--------------------------------------*/
+	public int length () {
+		return keys.length;
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+}
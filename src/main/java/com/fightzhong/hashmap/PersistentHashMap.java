@@ -0,0 +1,527 @@
+package com.fightzhong.hashmap;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * 不可变的持久化哈希表, 基于哈希数组映射前缀树(HAMT, Clojure中PersistentHashMap的实现方式):
+ *   <1> 哈希值(与HashMapV4相同的spread)每5位为一层, 每个节点最多有32个分支, 节点用一个32位的bitmap记录
+ *       哪些分支存在, 数组中只存放存在的分支, 下标为bitmap中该位之前1的个数
+ *   <2> 分支要么是一个key-value, 要么是下一层的子节点, 哈希值完全相同的key放在同一个冲突节点中
+ *   <3> put、remove不修改原来的节点, 只复制从根节点到目标位置路径上的节点(最多7层), 其余的节点与旧版本共享,
+ *       所以每次修改的代价是O(log32 n), 旧版本保持不变, 获取快照只需要保存一个引用
+ * 大量连续修改时逐次复制路径比较浪费, 可以通过asTransient得到一个可变的Transient, 它创建的节点带有
+ * 自己的owner标记, 再次修改这些节点时直接原地修改, 最后调用persistent得到新的不可变版本
+ *
+ * PersistentHashMap本身是不可变的, 多个线程可以同时读取同一个版本, 发布新版本时需要通过volatile字段等方式
+ * 安全发布; Transient不是线程安全的
+ */
+@SuppressWarnings( "unchecked" )
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+	private static int BITS = 5; // 每一层使用的哈希值位数
+	private static int MASK = ( 1 << BITS ) - 1;
+	private static Object NULL_KEY = new Object(); // key为null时用该对象代替, 数组中的null表示该分支是子节点
+	private static PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>( BitmapIndexedNode.EMPTY, 0 );
+
+	private final Node root;
+	private final int size;
+
+	private PersistentHashMap (Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	public static <K, V> PersistentHashMap<K, V> empty () {
+		return (PersistentHashMap<K, V>) EMPTY;
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	public V get (K key) {
+		Object k = maskNull( key );
+		Object val = root.find( 0, hash( k ), k, NOT_FOUND );
+		return val == NOT_FOUND ? null : (V) val;
+	}
+
+	public boolean containsKey (K key) {
+		Object k = maskNull( key );
+		return root.find( 0, hash( k ), k, NOT_FOUND ) != NOT_FOUND;
+	}
+
+	// 返回增加(或者替换)了该元素的新版本, 值没有变化时返回当前版本
+	public PersistentHashMap<K, V> put (K key, V val) {
+		Object k = maskNull( key );
+		Change change = new Change();
+		Node newRoot = root.put( null, 0, hash( k ), k, val, change );
+		if ( newRoot == root )
+			return this;
+
+		return new PersistentHashMap<>( newRoot, change.added ? size + 1 : size );
+	}
+
+	// 返回删除了该元素的新版本, key不存在时返回当前版本
+	public PersistentHashMap<K, V> remove (K key) {
+		Object k = maskNull( key );
+		Change change = new Change();
+		Node newRoot = root.remove( null, 0, hash( k ), k, change );
+		if ( !change.removed )
+			return this;
+
+		return new PersistentHashMap<>( newRoot == null ? BitmapIndexedNode.EMPTY : newRoot, size - 1 );
+	}
+
+	public Transient<K, V> asTransient () {
+		return new Transient<>( root, size );
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/*----------------------------------Transient--------------------------------------*/
+	/**
+	 * 可变的批量修改视图, 第一次修改某个共享节点时复制一份并标记为自己所有, 之后对该节点的修改都原地进行,
+	 * 调用persistent之后不能再使用
+	 */
+	public static final class Transient<K, V> {
+		private Object owner = new Object(); // 本次批量修改创建的节点都以该对象作为owner
+		private Node root;
+		private int size;
+
+		private Transient (Node root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+
+		public V get (K key) {
+			ensureEditable();
+			Object k = maskNull( key );
+			Object val = root.find( 0, hash( k ), k, NOT_FOUND );
+			return val == NOT_FOUND ? null : (V) val;
+		}
+
+		public boolean containsKey (K key) {
+			ensureEditable();
+			Object k = maskNull( key );
+			return root.find( 0, hash( k ), k, NOT_FOUND ) != NOT_FOUND;
+		}
+
+		public Transient<K, V> put (K key, V val) {
+			ensureEditable();
+			Object k = maskNull( key );
+			Change change = new Change();
+			root = root.put( owner, 0, hash( k ), k, val, change );
+			if ( change.added )
+				size ++;
+
+			return this;
+		}
+
+		public Transient<K, V> remove (K key) {
+			ensureEditable();
+			Object k = maskNull( key );
+			Change change = new Change();
+			Node newRoot = root.remove( owner, 0, hash( k ), k, change );
+			if ( change.removed ) {
+				root = newRoot == null ? BitmapIndexedNode.EMPTY : newRoot;
+				size --;
+			}
+
+			return this;
+		}
+
+		public int size () {
+			ensureEditable();
+			return size;
+		}
+
+		// 结束批量修改, 之后这些节点不会再被修改, 可以作为不可变版本发布
+		public PersistentHashMap<K, V> persistent () {
+			ensureEditable();
+			owner = null;
+			return new PersistentHashMap<>( root, size );
+		}
+
+		private void ensureEditable () {
+			if ( owner == null )
+				throw new IllegalStateException( "persistent之后不能再使用Transient" );
+		}
+	}
+
+	/*----------------------------------节点类--------------------------------------*/
+	private static Object NOT_FOUND = new Object();
+
+	// 记录一次修改的结果, 用于维护size
+	private static class Change {
+		boolean added;
+		boolean removed;
+	}
+
+	private static abstract class Node {
+		Object owner; // 创建该节点的Transient的标记, 不可变版本直接创建的节点为null
+
+		Node (Object owner) {
+			this.owner = owner;
+		}
+
+		// 不存在时返回notFound, 因为value可以为null
+		abstract Object find (int shift, int hash, Object key, Object notFound);
+
+		// 返回修改后的节点, 没有变化时返回this; owner不为null且与节点的owner相同时原地修改
+		abstract Node put (Object owner, int shift, int hash, Object key, Object val, Change change);
+
+		// 返回修改后的节点, 节点变为空时返回null
+		abstract Node remove (Object owner, int shift, int hash, Object key, Change change);
+
+		// 节点中的所有分支, 偶数下标为key(为null时下一个位置是子节点), 奇数下标为value或者子节点
+		abstract Object[] array ();
+
+		abstract int length (); // array中有效的长度
+	}
+
+	/*
+		普通节点: bitmap中第i位为1表示第i个分支存在, 该分支在array中的位置为2 * (bitmap中第i位之前1的个数)
+	 */
+	private static final class BitmapIndexedNode extends Node {
+		static BitmapIndexedNode EMPTY = new BitmapIndexedNode( null, 0, new Object[0] );
+
+		int bitmap;
+		Object[] array;
+
+		BitmapIndexedNode (Object owner, int bitmap, Object[] array) {
+			super( owner );
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		@Override
+		Object find (int shift, int hash, Object key, Object notFound) {
+			int bit = bitpos( hash, shift );
+			if ( ( bitmap & bit ) == 0 )
+				return notFound;
+
+			int idx = index( bit ) << 1;
+			Object keyOrNull = array[idx];
+			Object valOrNode = array[idx + 1];
+			if ( keyOrNull == null )
+				return ( (Node) valOrNode ).find( shift + BITS, hash, key, notFound );
+
+			return Objects.equals( key, keyOrNull ) ? valOrNode : notFound;
+		}
+
+		@Override
+		Node put (Object owner, int shift, int hash, Object key, Object val, Change change) {
+			int bit = bitpos( hash, shift );
+			int idx = index( bit ) << 1;
+
+			// 分支不存在, 插入一个新的key-value
+			if ( ( bitmap & bit ) == 0 ) {
+				change.added = true;
+				Object[] newArray = new Object[array.length + 2];
+				System.arraycopy( array, 0, newArray, 0, idx );
+				newArray[idx] = key;
+				newArray[idx + 1] = val;
+				System.arraycopy( array, idx, newArray, idx + 2, array.length - idx );
+
+				BitmapIndexedNode editable = editable( owner );
+				editable.bitmap |= bit;
+				editable.array = newArray;
+				return editable;
+			}
+
+			Object keyOrNull = array[idx];
+			Object valOrNode = array[idx + 1];
+
+			// 子节点, 在子节点中插入
+			if ( keyOrNull == null ) {
+				Node child = ( (Node) valOrNode ).put( owner, shift + BITS, hash, key, val, change );
+				return child == valOrNode ? this : editAndSet( owner, idx + 1, child );
+			}
+
+			// key已经存在, 替换value
+			if ( Objects.equals( key, keyOrNull ) )
+				return val == valOrNode ? this : editAndSet( owner, idx + 1, val );
+
+			// 另一个key占用了该分支, 两者一起下沉到新的子节点中
+			change.added = true;
+			Node child = createNode( owner, shift + BITS, hash( keyOrNull ), keyOrNull, valOrNode, hash, key, val );
+			BitmapIndexedNode editable = editAndSet( owner, idx, null );
+			editable.array[idx + 1] = child;
+			return editable;
+		}
+
+		@Override
+		Node remove (Object owner, int shift, int hash, Object key, Change change) {
+			int bit = bitpos( hash, shift );
+			if ( ( bitmap & bit ) == 0 )
+				return this;
+
+			int idx = index( bit ) << 1;
+			Object keyOrNull = array[idx];
+			Object valOrNode = array[idx + 1];
+
+			if ( keyOrNull == null ) {
+				Node child = ( (Node) valOrNode ).remove( owner, shift + BITS, hash, key, change );
+				if ( child == valOrNode )
+					return this;
+				if ( child != null )
+					return editAndSet( owner, idx + 1, child );
+			} else if ( Objects.equals( key, keyOrNull ) ) {
+				change.removed = true;
+			} else {
+				return this;
+			}
+
+			// 删除该分支
+			if ( bitmap == bit )
+				return null;
+
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy( array, 0, newArray, 0, idx );
+			System.arraycopy( array, idx + 2, newArray, idx, array.length - idx - 2 );
+
+			BitmapIndexedNode editable = editable( owner );
+			editable.bitmap ^= bit;
+			editable.array = newArray;
+			return editable;
+		}
+
+		@Override
+		Object[] array () {
+			return array;
+		}
+
+		@Override
+		int length () {
+			return array.length;
+		}
+
+		private int index (int bit) {
+			return Integer.bitCount( bitmap & ( bit - 1 ) );
+		}
+
+		// owner相同时返回自己, 否则复制一份属于owner的节点
+		private BitmapIndexedNode editable (Object owner) {
+			if ( owner != null && this.owner == owner )
+				return this;
+
+			return new BitmapIndexedNode( owner, bitmap, array.clone() );
+		}
+
+		private BitmapIndexedNode editAndSet (Object owner, int i, Object o) {
+			BitmapIndexedNode editable = editable( owner );
+			editable.array[i] = o;
+			return editable;
+		}
+	}
+
+	/*
+		冲突节点: 哈希值完全相同的key, array中依次存放key、value, 只能线性查找
+	 */
+	private static final class CollisionNode extends Node {
+		final int hash;
+		Object[] array;
+
+		CollisionNode (Object owner, int hash, Object[] array) {
+			super( owner );
+			this.hash = hash;
+			this.array = array;
+		}
+
+		@Override
+		Object find (int shift, int hash, Object key, Object notFound) {
+			int idx = indexOf( key );
+			return idx == -1 ? notFound : array[idx + 1];
+		}
+
+		@Override
+		Node put (Object owner, int shift, int hash, Object key, Object val, Change change) {
+			// 哈希值不同, 把冲突节点作为一个子节点放入新的普通节点中, 再在普通节点中插入
+			if ( hash != this.hash ) {
+				BitmapIndexedNode node = new BitmapIndexedNode( owner, bitpos( this.hash, shift ), new Object[] { null, this } );
+				return node.put( owner, shift, hash, key, val, change );
+			}
+
+			int idx = indexOf( key );
+			if ( idx != -1 ) {
+				if ( array[idx + 1] == val )
+					return this;
+
+				CollisionNode editable = editable( owner );
+				editable.array[idx + 1] = val;
+				return editable;
+			}
+
+			change.added = true;
+			Object[] newArray = Arrays.copyOf( array, array.length + 2 );
+			newArray[array.length] = key;
+			newArray[array.length + 1] = val;
+
+			CollisionNode editable = editable( owner );
+			editable.array = newArray;
+			return editable;
+		}
+
+		@Override
+		Node remove (Object owner, int shift, int hash, Object key, Change change) {
+			int idx = indexOf( key );
+			if ( idx == -1 )
+				return this;
+
+			change.removed = true;
+			if ( array.length == 2 )
+				return null;
+
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy( array, 0, newArray, 0, idx );
+			System.arraycopy( array, idx + 2, newArray, idx, array.length - idx - 2 );
+
+			CollisionNode editable = editable( owner );
+			editable.array = newArray;
+			return editable;
+		}
+
+		@Override
+		Object[] array () {
+			return array;
+		}
+
+		@Override
+		int length () {
+			return array.length;
+		}
+
+		private int indexOf (Object key) {
+			for ( int i = 0; i < array.length; i += 2 ) {
+				if ( Objects.equals( key, array[i] ) )
+					return i;
+			}
+
+			return -1;
+		}
+
+		private CollisionNode editable (Object owner) {
+			if ( owner != null && this.owner == owner )
+				return this;
+
+			return new CollisionNode( owner, hash, array.clone() );
+		}
+	}
+
+	/*
+		两个key在shift之前的层都相同, 为它们创建子节点: 哈希值完全相同时只能放入冲突节点,
+		否则它们一定会在某一层分开(最多到第30位), 依次放入一个空的普通节点即可
+	 */
+	private static Node createNode (Object owner, int shift, int hash1, Object key1, Object val1, int hash2, Object key2, Object val2) {
+		if ( hash1 == hash2 )
+			return new CollisionNode( owner, hash1, new Object[] { key1, val1, key2, val2 } );
+
+		Change change = new Change();
+		return BitmapIndexedNode.EMPTY
+				.put( owner, shift, hash1, key1, val1, change )
+				.put( owner, shift, hash2, key2, val2, change );
+	}
+
+	/*----------------------------------遍历--------------------------------------*/
+	public void forEach (BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull( action );
+		forEach( root, action );
+	}
+
+	private static <K, V> void forEach (Node node, BiConsumer<? super K, ? super V> action) {
+		Object[] array = node.array();
+		for ( int i = 0; i < node.length(); i += 2 ) {
+			if ( array[i] == null ) {
+				forEach( (Node) array[i + 1], action );
+			} else {
+				action.accept( (K) unmaskNull( array[i] ), (V) array[i + 1] );
+			}
+		}
+	}
+
+	// 版本不可变, 迭代器不需要检查并发修改, 也不支持删除
+	@Override
+	public Iterator<Map.Entry<K, V>> iterator () {
+		return new EntryIterator<>( root );
+	}
+
+	/*
+		用栈模拟递归, 树的深度最多为7层普通节点加上1层冲突节点, 栈的大小是固定的
+	 */
+	private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+		private final Node[] nodes = new Node[8];
+		private final int[] positions = new int[8];
+		private int depth;
+		private Map.Entry<K, V> next;
+
+		EntryIterator (Node root) {
+			nodes[0] = root;
+			advance();
+		}
+
+		@Override
+		public boolean hasNext () {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next () {
+			if ( next == null )
+				throw new NoSuchElementException();
+
+			Map.Entry<K, V> e = next;
+			advance();
+			return e;
+		}
+
+		// 找到下一个key-value, 遇到子节点时入栈, 当前节点遍历完时出栈
+		private void advance () {
+			while ( depth >= 0 ) {
+				Node node = nodes[depth];
+				int i = positions[depth];
+				if ( i >= node.length() ) {
+					nodes[depth] = null;
+					positions[depth --] = 0;
+					continue;
+				}
+
+				positions[depth] = i + 2;
+				Object[] array = node.array();
+				if ( array[i] == null ) {
+					nodes[++ depth] = (Node) array[i + 1];
+				} else {
+					next = new AbstractMap.SimpleImmutableEntry<>( (K) unmaskNull( array[i] ), (V) array[i + 1] );
+					return;
+				}
+			}
+
+			next = null;
+		}
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	// 与HashMapV4计算索引时使用的spread相同
+	private static int hash (Object k) {
+		return k == NULL_KEY ? 0 : HashMapV4.spread( k.hashCode() );
+	}
+
+	private static int bitpos (int hash, int shift) {
+		return 1 << ( ( hash >>> shift ) & MASK );
+	}
+
+	private static Object maskNull (Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	private static Object unmaskNull (Object key) {
+		return key == NULL_KEY ? null : key;
+	}
+}
@@ -0,0 +1,252 @@
+package com.fightzhong.hashmap;
+
+import java.util.Objects;
+
+/**
+ * 开放寻址法实现的HashMap, 与HashMapV1 - HashMapV4的拉链法不同, 所有的key、value直接存放在数组中,
+ * 不需要为每个元素创建一个节点对象, 查找的时候也是在连续的数组中进行线性探测, 对CPU缓存更加友好
+ *
+ * 线性探测最大的问题是元素会聚集在一起, 导致某些key的探测距离特别长, Robin Hood(劫富济贫)的思路是:
+ *   <1> 每个元素离它本应该在的位置(hash & mask)的距离称为探测距离(probe distance)
+ *   <2> 插入的时候, 如果当前要插入的元素的探测距离比槽位中已有元素的探测距离大(更"穷"), 则把槽位
+ *       让给当前元素, 被换出来的元素(更"富")继续往后寻找位置
+ *   <3> 这样所有元素的探测距离会比较平均, 查找的时候如果当前探测距离已经超过了槽位中元素的探测距离,
+ *       就说明key一定不存在, 可以提前结束查找
+ * 删除的时候采用后移删除(backward shift deletion), 即将后面的元素依次往前挪一位, 直到遇到空槽位
+ * 或者探测距离为0的元素, 这样就不需要墓碑标记, 查找的效率也不会因为删除而变差
+ */
+@SuppressWarnings( "unchecked" )
+public class RobinHoodHashMap<K, V> {
+	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的数组长度
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+	private static float DEFAULT_LOAD_FACTOR = 0.75f; // 负载因子
+	private static Object NULL_KEY = new Object(); // key为null时用该对象代替, 数组中的null表示空槽位
+
+	private int size;
+	private int threshold; // 元素个数达到该值时进行扩容, 等于table.length * loadFactor
+	private float loadFactor;
+
+	// 三个数组中下标相同的位置对应同一个元素, hashes中缓存了key的哈希值, 用于计算探测距离以及扩容
+	private Object[] keys;
+	private Object[] vals;
+	private int[] hashes;
+
+	/*----------------------------------构造器--------------------------------------*/
+	public RobinHoodHashMap () {
+		this( DEFAULT_INITIAL_CAPACITY );
+	}
+
+	public RobinHoodHashMap (int initialCapacity) {
+		this( initialCapacity, DEFAULT_LOAD_FACTOR );
+	}
+
+	public RobinHoodHashMap (int initialCapacity, float loadFactor) {
+		if ( initialCapacity < 0 )
+			throw new IllegalArgumentException( "非法的初始容量: " + initialCapacity );
+		// 开放寻址法中元素个数不能超过数组长度, 所以负载因子必须小于1
+		if ( !( loadFactor > 0 && loadFactor < 1 ) )
+			throw new IllegalArgumentException( "非法的负载因子: " + loadFactor );
+
+		this.loadFactor = loadFactor;
+		init( tableSizeFor( initialCapacity ) );
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	public V put (K key, V val) {
+		Object k = maskNull( key );
+		int hash = hash( k );
+		int mask = keys.length - 1;
+
+		int index = hash & mask;
+		int dist = 0;
+		while ( keys[index] != null ) {
+			// key已经存在, 用新值替换旧值
+			if ( hashes[index] == hash && Objects.equals( keys[index], k ) ) {
+				V oldVal = (V) vals[index];
+				vals[index] = val;
+
+				return oldVal;
+			}
+
+			// 槽位中的元素比当前元素"富", 根据Robin Hood的规则, 后面不可能再出现该key, 说明key不存在
+			if ( probeDistance( index ) < dist )
+				break;
+
+			index = ( index + 1 ) & mask;
+			dist ++;
+		}
+
+		// key不存在, 先判断是否需要扩容, 扩容后数组发生了变化, 需要重新寻找插入的位置
+		if ( size >= threshold ) {
+			resize();
+			insert( k, val, hash );
+		} else {
+			insert( k, val, hash, index, dist );
+		}
+
+		size ++;
+		return null;
+	}
+
+	public V get (K key) {
+		int index = indexOf( key );
+		return index == -1 ? null : (V) vals[index];
+	}
+
+	public boolean containsKey (K key) {
+		return indexOf( key ) != -1;
+	}
+
+	// 删除一个元素
+	public V remove (K key) {
+		int index = indexOf( key );
+		if ( index == -1 ) // 如果被删除的元素不存在, 直接返回即可
+			return null;
+
+		V ret = (V) vals[index];
+
+		// 后移删除: 将后面探测距离不为0的元素依次往前挪一位, 填补被删除元素留下的空位
+		int mask = keys.length - 1;
+		int next = ( index + 1 ) & mask;
+		while ( keys[next] != null && probeDistance( next ) != 0 ) {
+			keys[index] = keys[next];
+			vals[index] = vals[next];
+			hashes[index] = hashes[next];
+
+			index = next;
+			next = ( next + 1 ) & mask;
+		}
+
+		keys[index] = null;
+		vals[index] = null;
+		hashes[index] = 0;
+
+		size --;
+		return ret;
+	}
+
+	// 查找key所在的下标, 不存在则返回-1
+	private int indexOf (K key) {
+		Object k = maskNull( key );
+		int hash = hash( k );
+		int mask = keys.length - 1;
+
+		int index = hash & mask;
+		int dist = 0;
+		while ( keys[index] != null ) {
+			if ( hashes[index] == hash && Objects.equals( keys[index], k ) )
+				return index;
+
+			// 当前探测距离已经超过了槽位中元素的探测距离, key一定不存在, 提前结束查找
+			if ( probeDistance( index ) < dist )
+				return -1;
+
+			index = ( index + 1 ) & mask;
+			dist ++;
+		}
+
+		return -1;
+	}
+
+	private void resize () {
+		if ( keys.length == MAXIMUM_CAPACITY )
+			throw new IllegalStateException( "哈希表已经达到最大容量" );
+
+		Object[] oldKeys = keys;
+		Object[] oldVals = vals;
+		int[] oldHashes = hashes;
+		init( oldKeys.length * 2 );
+
+		// 将旧数组中的元素一个个放入新的数组中, 旧数组中的key都是唯一的, 不需要进行相等判断
+		for ( int i = 0; i < oldKeys.length; i ++ ) {
+			if ( oldKeys[i] != null )
+				insert( oldKeys[i], oldVals[i], oldHashes[i] );
+		}
+	}
+
+	// 插入一个确定不存在的key
+	private void insert (Object k, Object val, int hash) {
+		insert( k, val, hash, hash & ( keys.length - 1 ), 0 );
+	}
+
+	/*
+		从index位置开始插入一个确定不存在的key, dist为当前元素在index位置的探测距离,
+		遇到比当前元素"富"的槽位就交换, 然后带着被换出来的元素继续往后寻找位置, 直到遇到空槽位为止
+	 */
+	private void insert (Object k, Object val, int hash, int index, int dist) {
+		int mask = keys.length - 1;
+
+		while ( keys[index] != null ) {
+			int existingDist = probeDistance( index );
+
+			if ( existingDist < dist ) {
+				Object tmpKey = keys[index];
+				Object tmpVal = vals[index];
+				int tmpHash = hashes[index];
+
+				keys[index] = k;
+				vals[index] = val;
+				hashes[index] = hash;
+
+				k = tmpKey;
+				val = tmpVal;
+				hash = tmpHash;
+				dist = existingDist;
+			}
+
+			index = ( index + 1 ) & mask;
+			dist ++;
+		}
+
+		keys[index] = k;
+		vals[index] = val;
+		hashes[index] = hash;
+	}
+
+	// 获取index位置上的元素的探测距离, 即离它本应该在的位置有多远
+	private int probeDistance (int index) {
+		int mask = keys.length - 1;
+		return ( index - ( hashes[index] & mask ) ) & mask;
+	}
+
+	private void init (int capacity) {
+		keys = new Object[capacity];
+		vals = new Object[capacity];
+		hashes = new int[capacity];
+		threshold = (int) ( capacity * loadFactor );
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	// 与HashMapV4的index方法相同的二次哈希, 让高位也参与到索引的计算中
+	private static int hash (Object k) {
+		int hashCode = k == NULL_KEY ? 0 : k.hashCode();
+		return hashCode ^ ( hashCode >>> 16 );
+	}
+
+	private static Object maskNull (Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	// 获取大于等于cap的最小的2的幂, 保证可以利用hash & (length - 1)计算索引
+	private static int tableSizeFor (int cap) {
+		int n = 1;
+		while ( n < cap && n < MAXIMUM_CAPACITY ) {
+			n <<= 1;
+		}
+
+		return n;
+	}
+
+	/*----------------------------------简单的方法--------------------------------------*/
+	public int length () {
+		return keys.length;
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+}
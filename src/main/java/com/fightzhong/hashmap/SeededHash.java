@@ -0,0 +1,82 @@
+package com.fightzhong.hashmap;
+
+/**
+ * 带随机种子的哈希函数, 用于防御哈希碰撞攻击(hash flooding)
+ *
+ * String的hashCode算法是公开的, 很容易构造出大量hashCode相同的字符串(例如"Aa"和"BB"的任意组合),
+ * 不管之后怎么对hashCode进行二次哈希, 这些key都会落到同一个桶中, 所以对于String:
+ *   <1> 不使用String的hashCode, 而是用SipHash-1-3(Rust中HashMap默认的哈希算法)根据字符串的内容重新计算,
+ *       SipHash是一个以128位的密钥作为参数的哈希函数, 在不知道密钥的情况下无法构造出碰撞
+ *   <2> 每个哈希表使用自己的随机密钥, 即使攻击者知道了某一个哈希表的碰撞, 在另一个哈希表中也不成立
+ * 其他类型的key只能在hashCode的基础上加入种子进行混合, 原本hashCode就相同的key仍然会落到同一个桶中,
+ * 这种情况交给红黑树来兜底
+ */
+final class SeededHash {
+	private SeededHash () {
+	}
+
+	static int hash (Object key, long k0, long k1) {
+		if ( key instanceof String )
+			return sipHash( (String) key, k0, k1 );
+
+		// MurmurHash3中的fmix32, 使得hashCode的每一位都能影响结果的每一位
+		int h = key.hashCode() ^ (int) k0;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/*
+		SipHash-1-3: 每次读取64位的数据(4个char), 进行1轮压缩, 最后一块数据的最高字节存放数据的字节数,
+		读取完成后进行3轮最终的混合, 4个64位的内部状态异或在一起得到结果, 再折叠成32位
+	 */
+	private static int sipHash (String s, long k0, long k1) {
+		long v0 = k0 ^ 0x736f6d6570736575L;
+		long v1 = k1 ^ 0x646f72616e646f6dL;
+		long v2 = k0 ^ 0x6c7967656e657261L;
+		long v3 = k1 ^ 0x7465646279746573L;
+
+		int len = s.length();
+		int i = 0;
+		for ( ; i + 4 <= len; i += 4 ) {
+			long m = s.charAt( i )
+				| (long) s.charAt( i + 1 ) << 16
+				| (long) s.charAt( i + 2 ) << 32
+				| (long) s.charAt( i + 3 ) << 48;
+
+			v3 ^= m;
+			v0 += v1; v1 = Long.rotateLeft( v1, 13 ); v1 ^= v0; v0 = Long.rotateLeft( v0, 32 );
+			v2 += v3; v3 = Long.rotateLeft( v3, 16 ); v3 ^= v2;
+			v0 += v3; v3 = Long.rotateLeft( v3, 21 ); v3 ^= v0;
+			v2 += v1; v1 = Long.rotateLeft( v1, 17 ); v1 ^= v2; v2 = Long.rotateLeft( v2, 32 );
+			v0 ^= m;
+		}
+
+		// 最后剩下的不足4个char, 与字节数一起组成最后一块
+		long m = (long) ( ( len << 1 ) & 0xff ) << 56;
+		for ( int shift = 0; i < len; i ++, shift += 16 ) {
+			m |= (long) s.charAt( i ) << shift;
+		}
+
+		v3 ^= m;
+		v0 += v1; v1 = Long.rotateLeft( v1, 13 ); v1 ^= v0; v0 = Long.rotateLeft( v0, 32 );
+		v2 += v3; v3 = Long.rotateLeft( v3, 16 ); v3 ^= v2;
+		v0 += v3; v3 = Long.rotateLeft( v3, 21 ); v3 ^= v0;
+		v2 += v1; v1 = Long.rotateLeft( v1, 17 ); v1 ^= v2; v2 = Long.rotateLeft( v2, 32 );
+		v0 ^= m;
+
+		v2 ^= 0xff;
+		for ( int round = 0; round < 3; round ++ ) {
+			v0 += v1; v1 = Long.rotateLeft( v1, 13 ); v1 ^= v0; v0 = Long.rotateLeft( v0, 32 );
+			v2 += v3; v3 = Long.rotateLeft( v3, 16 ); v3 ^= v2;
+			v0 += v3; v3 = Long.rotateLeft( v3, 21 ); v3 ^= v0;
+			v2 += v1; v1 = Long.rotateLeft( v1, 17 ); v1 ^= v2; v2 = Long.rotateLeft( v2, 32 );
+		}
+
+		long h = v0 ^ v1 ^ v2 ^ v3;
+		return (int) ( h ^ ( h >>> 32 ) );
+	}
+}
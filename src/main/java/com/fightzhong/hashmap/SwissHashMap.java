@@ -0,0 +1,452 @@
+package com.fightzhong.hashmap;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * Swiss Table(abseil的flat_hash_map)风格的开放寻址哈希表, 在key、value数组之外单独维护一个控制字节数组:
+ *   <1> 每个槽位对应一个控制字节: 空槽位为EMPTY(0x80), 被删除的槽位为DELETED(0xFE), 存放了元素的槽位
+ *       最高位为0, 低7位存放哈希值的低7位(h2), 哈希值剩下的高位(h1)用来决定从哪一组开始探测
+ *   <2> 每8个槽位为一组, 一组的控制字节刚好存放在一个long中, 利用SWAR(SIMD within a register)技巧,
+ *       几条位运算就能同时比较一组中8个控制字节与h2是否相等、是否有空槽位
+ *   <3> 查找时先在控制字节中筛选出h2相等的槽位, 只有这些槽位才会去访问key对象调用equals, h2不相等的
+ *       元素(127/128)在控制字节这一层就被排除了, 查找不存在的key时通常只需要读取一个long
+ *   <4> 组与组之间按照三角数序列(1, 2, 3...的累加)探测, 组的个数是2的幂, 保证能访问到每一组;
+ *       遇到含有EMPTY的组说明探测序列到此为止, key一定不存在
+ * 负载因子固定为7/8, 删除时如果所在的组中还有EMPTY, 说明从来没有探测序列经过该组, 可以直接置为EMPTY,
+ * 否则只能置为DELETED(墓碑), 墓碑占用的位置在下一次rehash时回收
+ */
+@SuppressWarnings( "unchecked" )
+public class SwissHashMap<K, V> implements HashMapEngine<K, V> {
+	private static int DEFAULT_INITIAL_CAPACITY = 1 << 4; // 16, 哈希表默认的槽位个数
+	private static int MAXIMUM_CAPACITY = 1 << 30;
+	private static int GROUP_WIDTH = 8; // 一组的槽位个数, 即一个long中控制字节的个数
+	private static Object NULL_KEY = new Object(); // key为null时用该对象代替
+
+	private static byte EMPTY = (byte) 0x80; // 空槽位
+	private static byte DELETED = (byte) 0xFE; // 被删除的槽位(墓碑)
+	private static long LSB = 0x0101010101010101L; // 每个字节的最低位
+	private static long MSB = 0x8080808080808080L; // 每个字节的最高位, 也是一组全部为EMPTY时的值
+
+	private long[] ctrl; // 控制字节, 下标为i的槽位对应ctrl[i >>> 3]中的第(i & 7)个字节(从低位开始)
+	private Object[] kv; // 下标为i的槽位中的key、value存放在kv[2i]、kv[2i + 1]中
+
+	private int size;
+	private int growthLeft; // 还可以占用多少个EMPTY槽位, 为0时需要rehash
+	private int modCount;
+
+	/*----------------------------------构造器--------------------------------------*/
+	public SwissHashMap () {
+		this( DEFAULT_INITIAL_CAPACITY );
+	}
+
+	public SwissHashMap (int initialCapacity) {
+		if ( initialCapacity < 0 )
+			throw new IllegalArgumentException( "非法的初始容量: " + initialCapacity );
+
+		init( capacityFor( initialCapacity ) );
+	}
+
+	/*----------------------------------核心方法--------------------------------------*/
+	@Override
+	public V put (K key, V val) {
+		Object k = maskNull( key );
+		int hash = hash( k );
+		int index = find( k, hash );
+		if ( index != -1 ) { // 已经存在该key, 用新值替换旧值
+			V oldVal = (V) kv[( index << 1 ) + 1];
+			kv[( index << 1 ) + 1] = val;
+			return oldVal;
+		}
+
+		insert( k, val, hash );
+		return null;
+	}
+
+	@Override
+	public V get (K key) {
+		Object k = maskNull( key );
+		int index = find( k, hash( k ) );
+		return index == -1 ? null : (V) kv[( index << 1 ) + 1];
+	}
+
+	@Override
+	public boolean containsKey (K key) {
+		Object k = maskNull( key );
+		return find( k, hash( k ) ) != -1;
+	}
+
+	@Override
+	public V remove (K key) {
+		Object k = maskNull( key );
+		int index = find( k, hash( k ) );
+		if ( index == -1 )
+			return null;
+
+		V oldVal = (V) kv[( index << 1 ) + 1];
+		erase( index );
+		return oldVal;
+	}
+
+	/*
+		只查找一次, 找到后直接修改或者删除, 找不到则插入新的元素,
+		remapping中如果修改了哈希表, 之前找到的下标会失效, 所以此时抛出ConcurrentModificationException
+	 */
+	@Override
+	public V compute (K key, Remapping<K, V> remapping) {
+		Object k = maskNull( key );
+		int hash = hash( k );
+		int index = find( k, hash );
+		int expectedModCount = modCount;
+
+		if ( index != -1 ) {
+			Object newVal = remapping.apply( key, (V) kv[( index << 1 ) + 1], true );
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			if ( newVal == KEEP_MAPPING )
+				return (V) kv[( index << 1 ) + 1];
+			if ( newVal != NO_MAPPING ) {
+				kv[( index << 1 ) + 1] = newVal;
+				return (V) newVal;
+			}
+
+			erase( index );
+			return null;
+		}
+
+		Object newVal = remapping.apply( key, null, false );
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+		if ( newVal == NO_MAPPING || newVal == KEEP_MAPPING )
+			return null;
+
+		insert( k, newVal, hash );
+		return (V) newVal;
+	}
+
+	@Override
+	public void clear () {
+		Arrays.fill( ctrl, MSB );
+		Arrays.fill( kv, null );
+		size = 0;
+		growthLeft = maxSizeFor( ctrl.length * GROUP_WIDTH );
+		modCount ++;
+	}
+
+	@Override
+	public int size () {
+		return size;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/*----------------------------------探测相关操作--------------------------------------*/
+	/*
+		查找key所在的槽位, 不存在时返回-1, 每一组先用SWAR筛选出h2相等的槽位, 只对这些槽位调用equals,
+		组中有EMPTY时结束查找
+	 */
+	private int find (Object k, int hash) {
+		int groupMask = ctrl.length - 1;
+		int g = h1( hash ) & groupMask;
+		int h2 = h2( hash );
+
+		for ( int step = 1; ; step ++ ) {
+			long group = ctrl[g];
+			for ( long match = matchByte( group, h2 ); match != 0; match &= match - 1 ) {
+				int index = ( g << 3 ) + ( Long.numberOfTrailingZeros( match ) >>> 3 );
+				if ( Objects.equals( kv[index << 1], k ) )
+					return index;
+			}
+
+			if ( matchEmpty( group ) != 0 )
+				return -1;
+
+			g = ( g + step ) & groupMask;
+		}
+	}
+
+	/*
+		插入一个确定不存在的key, 放到探测序列中第一个EMPTY或者DELETED的槽位中,
+		占用EMPTY槽位时growthLeft减1, growthLeft已经为0时先rehash, 复用DELETED槽位则不需要
+	 */
+	private void insert (Object k, Object val, int hash) {
+		int index = findInsertSlot( hash );
+		if ( growthLeft == 0 && ctrlAt( index ) == EMPTY ) {
+			rehash();
+			index = findInsertSlot( hash );
+		}
+
+		if ( ctrlAt( index ) == EMPTY )
+			growthLeft --;
+
+		setCtrl( index, (byte) h2( hash ) );
+		kv[index << 1] = k;
+		kv[( index << 1 ) + 1] = val;
+		size ++;
+		modCount ++;
+	}
+
+	private int findInsertSlot (int hash) {
+		int groupMask = ctrl.length - 1;
+		int g = h1( hash ) & groupMask;
+
+		for ( int step = 1; ; step ++ ) {
+			long match = ctrl[g] & MSB; // EMPTY以及DELETED的最高位都是1
+			if ( match != 0 )
+				return ( g << 3 ) + ( Long.numberOfTrailingZeros( match ) >>> 3 );
+
+			g = ( g + step ) & groupMask;
+		}
+	}
+
+	/*
+		删除index槽位中的元素, 槽位不会移动, 所以遍历时删除不影响后续的遍历;
+		所在的组中还有EMPTY说明没有探测序列越过该组, 置为EMPTY即可, 否则置为DELETED
+	 */
+	private void erase (int index) {
+		if ( matchEmpty( ctrl[index >>> 3] ) != 0 ) {
+			setCtrl( index, EMPTY );
+			growthLeft ++;
+		} else {
+			setCtrl( index, DELETED );
+		}
+
+		kv[index << 1] = null;
+		kv[( index << 1 ) + 1] = null;
+		size --;
+		modCount ++;
+	}
+
+	/*
+		墓碑较多(元素个数不超过最大容量的一半)时按原来的容量重建, 只回收墓碑, 否则容量扩大为原来的两倍,
+		旧数组中的key都是唯一的, 直接放到新数组的第一个空槽位中
+	 */
+	private void rehash () {
+		int capacity = ctrl.length * GROUP_WIDTH;
+		if ( size > maxSizeFor( capacity ) >>> 1 ) {
+			if ( capacity >= MAXIMUM_CAPACITY )
+				throw new IllegalStateException( "哈希表已经达到最大容量" );
+			capacity <<= 1;
+		}
+
+		long[] oldCtrl = ctrl;
+		Object[] oldKv = kv;
+		init( capacity );
+
+		for ( int g = 0; g < oldCtrl.length; g ++ ) {
+			for ( long full = ~oldCtrl[g] & MSB; full != 0; full &= full - 1 ) {
+				int oldIndex = ( g << 3 ) + ( Long.numberOfTrailingZeros( full ) >>> 3 );
+				Object k = oldKv[oldIndex << 1];
+				int hash = hash( k );
+				int index = findInsertSlot( hash );
+				setCtrl( index, (byte) h2( hash ) );
+				kv[index << 1] = k;
+				kv[( index << 1 ) + 1] = oldKv[( oldIndex << 1 ) + 1];
+			}
+		}
+
+		growthLeft -= size;
+	}
+
+	private void init (int capacity) {
+		ctrl = new long[capacity / GROUP_WIDTH];
+		Arrays.fill( ctrl, MSB );
+		kv = new Object[capacity << 1];
+		growthLeft = maxSizeFor( capacity );
+	}
+
+	/*----------------------------------SWAR--------------------------------------*/
+	/*
+		找出group中等于h2的字节, 返回值中这些字节的最高位为1: 先异或使相等的字节变为0, 再利用
+		(x - 0x01..) & ~x & 0x80..找出为0的字节; 借位可能让紧挨着匹配字节的更高字节误报, 调用方会用equals过滤
+	 */
+	private static long matchByte (long group, int h2) {
+		long x = group ^ ( LSB * h2 );
+		return ( x - LSB ) & ~x & MSB;
+	}
+
+	// 找出group中的EMPTY: 只有EMPTY和DELETED的最高位为1, 两者中只有EMPTY的第1位为0, 左移6位后与最高位对齐
+	private static long matchEmpty (long group) {
+		return group & ~( group << 6 ) & MSB;
+	}
+
+	private byte ctrlAt (int index) {
+		return (byte) ( ctrl[index >>> 3] >>> ( ( index & 7 ) << 3 ) );
+	}
+
+	private void setCtrl (int index, byte b) {
+		int shift = ( index & 7 ) << 3;
+		ctrl[index >>> 3] = ctrl[index >>> 3] & ~( 0xFFL << shift ) | ( ( b & 0xFFL ) << shift );
+	}
+
+	/*----------------------------------遍历--------------------------------------*/
+	// 按组扫描控制字节, 一次取出一组中所有存放了元素的槽位
+	public void forEach (BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull( action );
+
+		int expectedModCount = modCount;
+		for ( int g = 0; g < ctrl.length && modCount == expectedModCount; g ++ ) {
+			for ( long full = ~ctrl[g] & MSB; full != 0 && modCount == expectedModCount; full &= full - 1 ) {
+				int index = ( g << 3 ) + ( Long.numberOfTrailingZeros( full ) >>> 3 );
+				action.accept( (K) unmaskNull( kv[index << 1] ), (V) kv[( index << 1 ) + 1] );
+			}
+		}
+
+		if ( modCount != expectedModCount )
+			throw new ConcurrentModificationException();
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator () {
+		return new EntryIterator();
+	}
+
+	// 删除元素不会移动其他元素, 通过迭代器删除后直接继续往后遍历即可
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		int next = nextFull( 0 ); // 下一个存放了元素的槽位, 没有时为-1
+		int lastReturned = -1;
+		int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext () {
+			return next != -1;
+		}
+
+		@Override
+		public Map.Entry<K, V> next () {
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+			if ( next == -1 )
+				throw new NoSuchElementException();
+
+			lastReturned = next;
+			next = nextFull( next + 1 );
+			return new Entry( lastReturned );
+		}
+
+		@Override
+		public void remove () {
+			if ( lastReturned == -1 )
+				throw new IllegalStateException();
+			if ( modCount != expectedModCount )
+				throw new ConcurrentModificationException();
+
+			erase( lastReturned );
+			lastReturned = -1;
+			expectedModCount = modCount;
+		}
+
+		// 从from开始找到第一个存放了元素的槽位
+		private int nextFull (int from) {
+			for ( int g = from >>> 3; g < ctrl.length; g ++ ) {
+				long full = ~ctrl[g] & MSB;
+				if ( g == from >>> 3 )
+					full &= -1L << ( ( from & 7 ) << 3 );
+				if ( full != 0 )
+					return ( g << 3 ) + ( Long.numberOfTrailingZeros( full ) >>> 3 );
+			}
+
+			return -1;
+		}
+	}
+
+	// 槽位中的元素在rehash之前不会移动, Entry记录下标即可, setValue直接修改kv数组
+	private class Entry implements Map.Entry<K, V> {
+		final int index;
+		final K key;
+
+		Entry (int index) {
+			this.index = index;
+			this.key = (K) unmaskNull( kv[index << 1] );
+		}
+
+		@Override
+		public K getKey () {
+			return key;
+		}
+
+		@Override
+		public V getValue () {
+			return (V) kv[( index << 1 ) + 1];
+		}
+
+		@Override
+		public V setValue (V value) {
+			V oldVal = (V) kv[( index << 1 ) + 1];
+			kv[( index << 1 ) + 1] = value;
+			return oldVal;
+		}
+
+		@Override
+		public boolean equals (Object o) {
+			if ( !( o instanceof Map.Entry ) )
+				return false;
+
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return Objects.equals( key, e.getKey() ) && Objects.equals( getValue(), e.getValue() );
+		}
+
+		@Override
+		public int hashCode () {
+			return Objects.hashCode( key ) ^ Objects.hashCode( getValue() );
+		}
+
+		@Override
+		public String toString () {
+			return key + "=" + getValue();
+		}
+	}
+
+	/*----------------------------------工具方法--------------------------------------*/
+	/*
+		h1、h2分别取哈希值的高25位和低7位, 两者都需要足够随机, 所以用MurmurHash3中的fmix32对hashCode进行混合,
+		否则像Integer这样hashCode连续的key会集中在同一组中
+	 */
+	private static int hash (Object k) {
+		int h = k == NULL_KEY ? 0 : k.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int h1 (int hash) {
+		return hash >>> 7;
+	}
+
+	private static int h2 (int hash) {
+		return hash & 0x7F;
+	}
+
+	private static Object maskNull (Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	private static Object unmaskNull (Object key) {
+		return key == NULL_KEY ? null : key;
+	}
+
+	// 负载因子为7/8时capacity个槽位最多存放的元素个数
+	private static int maxSizeFor (int capacity) {
+		return capacity - capacity / 8;
+	}
+
+	// 能在负载因子7/8之内存放expectedSize个元素的最小槽位个数, 至少为一组
+	private static int capacityFor (int expectedSize) {
+		long needed = Math.max( GROUP_WIDTH, (long) expectedSize * 8 / 7 + 1 );
+		if ( needed >= MAXIMUM_CAPACITY )
+			return MAXIMUM_CAPACITY;
+
+		return Integer.highestOneBit( (int) needed - 1 ) << 1;
+	}
+}